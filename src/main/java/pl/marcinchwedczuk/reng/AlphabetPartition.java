@@ -0,0 +1,106 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.*;
+
+/**
+ * Splits the characters into classes that every character test of an
+ * NfaProgram treats the same, so a DFA needs one transition per class
+ * instead of one per char. Most patterns have only a handful of classes.
+ * ASCII characters are looked up in a table, the rest of the
+ * alphabet by binary search over interval starts.
+ */
+final class AlphabetPartition {
+    private static final int ASCII = 128;
+
+    private final int[] asciiClass = new int[ASCII];
+    // Interval i covers chars [starts[i], starts[i+1])
+    private final int[] starts;
+    private final int[] intervalClass;
+    private final char[] representative;
+
+    private AlphabetPartition(int[] starts, int[] intervalClass, char[] representative) {
+        this.starts = starts;
+        this.intervalClass = intervalClass;
+        this.representative = representative;
+
+        for (int c = 0; c < ASCII; c++) {
+            asciiClass[c] = intervalClass[interval((char) c)];
+        }
+    }
+
+    public static AlphabetPartition of(NfaProgram program) {
+        List<Integer> tests = new ArrayList<>();
+        SortedSet<Integer> boundaries = new TreeSet<>();
+        boundaries.add(0);
+
+        for (int pc = 0; pc < program.size(); pc++) {
+            int op = program.op[pc];
+            if (op != NfaProgram.CHAR && op != NfaProgram.NOT_CHAR) continue;
+
+            tests.add(pc);
+            // Every range of the class is one interval
+            CharClass chars = program.node[pc].chars;
+            for (int r = 0; r < chars.rangeCount(); r++) {
+                boundaries.add((int) chars.rangeFrom(r));
+                boundaries.add(chars.rangeTo(r) + 1);
+            }
+        }
+        boundaries.remove(Character.MAX_VALUE + 1);
+
+        int[] starts = new int[boundaries.size()];
+        int i = 0;
+        for (int b : boundaries) starts[i++] = b;
+
+        // Intervals that pass the same tests share a class
+        Map<BitSet, Integer> classIds = new HashMap<>();
+        List<Character> representative = new ArrayList<>();
+        int[] intervalClass = new int[starts.length];
+
+        for (i = 0; i < starts.length; i++) {
+            char c = (char) starts[i];
+            BitSet signature = new BitSet(tests.size());
+            for (int t = 0; t < tests.size(); t++) {
+                signature.set(t, program.accepts(tests.get(t), c));
+            }
+
+            Integer id = classIds.get(signature);
+            if (id == null) {
+                id = representative.size();
+                classIds.put(signature, id);
+                representative.add(c);
+            }
+            intervalClass[i] = id;
+        }
+
+        char[] reps = new char[representative.size()];
+        for (i = 0; i < reps.length; i++) reps[i] = representative.get(i);
+
+        return new AlphabetPartition(starts, intervalClass, reps);
+    }
+
+    public int classCount() {
+        return representative.length;
+    }
+
+    public int classOf(char c) {
+        return (c < ASCII)
+                ? asciiClass[c]
+                : intervalClass[interval(c)];
+    }
+
+    /** Any char of the class, all of them pass the same tests. */
+    public char representative(int charClass) {
+        return representative[charClass];
+    }
+
+    private int interval(char c) {
+        // Last interval starting at or before c, starts[0] is 0
+        int lo = 0, hi = starts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= c) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+}
@@ -1,108 +1,17 @@
 package pl.marcinchwedczuk.reng;
 
-import org.xml.sax.ErrorHandler;
-
-import java.util.Hashtable;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @SuppressWarnings("SimplifiableConditionalExpression")
 public class BacktrackingMatcher {
-    private static int positioning = -1;
-
-    private static Hashtable<String, Boolean> memoTable;
-    private static MemoisationPolicy memoPolicy;
-    private static MemoisationEncodingScheme memoScheme;
-    private static BitMap bitMap;
-    private static MemoisationPolicy pol;
+    // Grids up to this many cells (1MB) are allocated eagerly,
+    // larger ones are paged and allocated on first use.
+    static final long EAGER_BIT_MAP_CELLS = 1L << 22;
 
     public static Match match(String s, RAst regex,
                               MemoisationPolicy memPolicy,
                               MemoisationEncodingScheme memEncScheme) {
-        pol = memPolicy;
-        memoScheme = memEncScheme;
-        Input input = Input.of(s);
-        positioning = -1;
-        if (retPol() == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-            RAst.calcInDegree(regex);
-        }
-
-        if (pol == MemoisationPolicy.NONE) {
-            while (true) {
-                int startIndex = input.currentPos();
-                AtomicInteger endIndex = new AtomicInteger(0);
-
-                boolean hasMatch = match(input, regex, () -> {
-                    endIndex.set(input.currentPos());
-                    return true;
-                });
-
-                if (hasMatch) {
-                    return new Match(s, hasMatch, startIndex, endIndex.get());
-                }
-
-                // We are at the end of the input - no match
-                if (input.atEnd()) return new Match(s, hasMatch, -1, -1);
-
-                // Try to match from next index
-                positioning = input.currentPos();
-                input.advance(1);
-            }
-        } else if (memoScheme == MemoisationEncodingScheme.BIT_MAP) {
-            bitMap = new BitMap(numOfNodes(), input.length());
-            while (true) {
-                int startIndex = input.currentPos();
-                AtomicInteger endIndex = new AtomicInteger(0);
-
-                boolean hasMatch = match(input, regex, () -> {
-                    endIndex.set(input.currentPos());
-                    return true;
-                });
-
-                if (hasMatch) {
-                    return new Match(s, hasMatch, startIndex, endIndex.get());
-                }
-
-                // We are at the end of the input - no match
-                if (input.atEnd()) return new Match(s, hasMatch, -1, -1);
-
-                // Try to match from next index
-                positioning = input.currentPos();
-                input.advance(1);
-            }
-        } else if (memoScheme == MemoisationEncodingScheme.HASH_TABLE) {
-            memoTable = new Hashtable<String, Boolean>();
-            while (true) {
-                int startIndex = input.currentPos();
-                AtomicInteger endIndex = new AtomicInteger(0);
-                boolean hasMatch;
-
-                if (!memoTable.containsKey(regex.getID() + " " + input.currentPos())) {
-                    hasMatch = match(input, regex, () -> {
-                        endIndex.set(input.currentPos());
-                        return true;
-                    });
-
-                    memoTable.put(regex.getID() + " " + input.currentPos(), hasMatch);
-                } else {
-                    hasMatch = memoTable.get(regex.getID() + " " + input.currentPos());
-                }
-
-                if (hasMatch) {
-                    memoTable.clear();
-                    return new Match(s, hasMatch, startIndex, endIndex.get());
-                }
-
-                // We are at the end of the input - no match
-                if (input.atEnd()) return new Match(s, hasMatch, -1, -1);
-
-                // Try to match from next index
-                positioning = input.currentPos();
-                input.advance(1);
-            }
-        } else {
-            return new Match(s, false, -1, -1);
-        }
+        return CompiledPattern.compile(regex, memPolicy, memEncScheme).find(s);
     }
 
     public static Match match(String s, RAst regex) {
@@ -111,6 +20,8 @@ public class BacktrackingMatcher {
                 ,MemoisationEncodingScheme.HASH_TABLE);
     }
 
+    // Plain recursive matching without memoisation,
+    // the engines are tested against it.
     @SuppressWarnings("SimplifiableConditionalExpression")
     public static boolean match(Input input, RAst ast, Cont cont) {
         RAstType type = ast.type;
@@ -131,7 +42,6 @@ public class BacktrackingMatcher {
                 if (input.atEnd()) return false;
                 if (ast.chars.contains(input.current())) {
                     m = input.markPosition();
-                    positioning = input.currentPos();
                     input.advance(1);
                     try {
                         return cont.run();
@@ -145,7 +55,6 @@ public class BacktrackingMatcher {
                 if (input.atEnd()) return false;
                 if (!ast.chars.contains(input.current())) {
                     m = input.markPosition();
-                    positioning = input.currentPos();
                     input.advance(1);
                     try {
                         return cont.run();
@@ -185,129 +94,12 @@ public class BacktrackingMatcher {
         if (currExpr == exprs.size()) {
             return cont.run();
         }
-        boolean match;
-
-//        //Start Memoize for Bitmap
-        if (pol != MemoisationPolicy.NONE) {
-            if (memoScheme == MemoisationEncodingScheme.BIT_MAP) {
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!bitMap.get(exprs.get(currExpr).getID(), input.currentPos()).isSet) {
-                        match = match(input, exprs.get(currExpr), () ->
-                                concatRec(input, exprs, currExpr + 1, cont));
-                        bitMap.setValue(exprs.get(currExpr).getID(), input.currentPos(), match);
-                        return match;
-                    } else
-                        return bitMap.get(exprs.get(currExpr).getID(), input.currentPos()).match;
-                }
 
-                //Memoize only in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (exprs.get(currExpr).getInDegree() > 1) {
-                        if (!bitMap.get(exprs.get(currExpr).getID(), input.currentPos()).isSet) {
-                            match = match(input, exprs.get(currExpr), () ->
-                                    concatRec(input, exprs, currExpr + 1, cont));
-                            bitMap.setValue(exprs.get(currExpr).getID(), input.currentPos(), match);
-                            return match;
-                        } else
-                            return bitMap.get(exprs.get(currExpr).getID(), input.currentPos()).match;
-                    } else {
-                        return match(input, exprs.get(currExpr), () ->
-//            // If it succeeded then match next expression
-                                        concatRec(input, exprs, currExpr + 1, cont)
-                        );
-                    }
-                }
-//        //Memoize only ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (exprs.get(currExpr).isAncestorNode()) {
-                        if (!bitMap.get(exprs.get(currExpr).getID(), input.currentPos()).isSet) {
-                            match = match(input, exprs.get(currExpr), () ->
-                                    concatRec(input, exprs, currExpr + 1, cont));
-                            bitMap.setValue(exprs.get(currExpr).getID(), input.currentPos(), match);
-                            return match;
-                        } else
-                            return bitMap.get(exprs.get(currExpr).getID(), input.currentPos()).match;
-                    } else {
-                        return match(input, exprs.get(currExpr), () ->
-                                // If it succeeded then match next expression
-                                concatRec(input, exprs, currExpr + 1, cont)
-                        );
-                    }
-                } else {
-                    return match(input, exprs.get(currExpr), () ->
-                            // If it succeeded then match next expression
-                            concatRec(input, exprs, currExpr + 1, cont)
-                    );
-                }
-            } else if (memoScheme == MemoisationEncodingScheme.HASH_TABLE) {
-                // MEMOIZE ALL FOR HASHTABLE
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!memoTable.containsKey(exprs.get(currExpr).getID() + " " + input.currentPos())) {
-                        match = match(input, exprs.get(currExpr), () ->
-                                concatRec(input, exprs, currExpr + 1, cont));
-                        memoTable.put(exprs.get(currExpr).getID() + " " + input.currentPos(), match);
-                        return match;
-                    } else {
-                        return memoTable.get(exprs.get(currExpr).getID() + " " + input.currentPos());
-                    }
-                }
-                // MEMOIZE IN DEGREE FOR HASHTABLE
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (exprs.get(currExpr).getInDegree() > 1) {
-                        if (!memoTable.containsKey(exprs.get(currExpr).getID() + " " + input.currentPos())) {
-                            match = match(input, exprs.get(currExpr), () ->
-                                    concatRec(input, exprs, currExpr + 1, cont));
-                            memoTable.put(exprs.get(currExpr).getID() + " " + input.currentPos(), match);
-                            return match;
-                        } else {
-                            return memoTable.get(exprs.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                    }
-                    //DEGREE LESS SO DONT MEMOIZE
-                    else {
-                        return match(input, exprs.get(currExpr), () ->
-//            // If it succeeded then match next expression
-                                        concatRec(input, exprs, currExpr + 1, cont)
-                        );
-                    }
-                }
-                // MEMOIZE WITH ANCESTOR NODES
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (exprs.get(currExpr).isAncestorNode()) {
-                        if (!memoTable.containsKey(exprs.get(currExpr).getID() + " " + input.currentPos())) {
-                            match = match(input, exprs.get(currExpr), () ->
-                                    concatRec(input, exprs, currExpr + 1, cont));
-                            memoTable.put(exprs.get(currExpr).getID() + " " + input.currentPos(), match);
-                            return match;
-                        } else {
-                            return memoTable.get(exprs.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                    } else {
-                        return match(input, exprs.get(currExpr), () ->
-//            // If it succeeded then match next expression
-                                        concatRec(input, exprs, currExpr + 1, cont)
-                        );
-                    }
-                } else {
-                    return match(input, exprs.get(currExpr), () ->
-//            // If it succeeded then match next expression
-                                    concatRec(input, exprs, currExpr + 1, cont)
-                    );
-                }
-            }
-            // Match exprs.get(currExpr)
-            //The normal code is here
-            return match(input, exprs.get(currExpr), () ->
-//            // If it succeeded then match next expression
-                            concatRec(input, exprs, currExpr + 1, cont)
-            );
-        }
-        // No memoizing
-        else {
-            return match(input, exprs.get(currExpr), () ->
-                    concatRec(input, exprs, currExpr + 1, cont)
-            );
-        }
+        // Match exprs.get(currExpr)
+        return match(input, exprs.get(currExpr), () ->
+                // If it succeeded then match next expression
+                concatRec(input, exprs, currExpr + 1, cont)
+        );
     }
 
     private static boolean repeatRec(Input input,
@@ -316,227 +108,26 @@ public class BacktrackingMatcher {
                                      Cont cont) {
         if (matchCount > repeatAst.repeatMax)
             return false;
-        boolean matched = false;
-        if (pol != MemoisationPolicy.NONE) {
-            //Start of memoize for BITMAP
-            if (memoScheme == MemoisationEncodingScheme.BIT_MAP) {
-                if (pol == MemoisationPolicy.ALL) {
-                    if (input.currentPos() == positioning) {
-                        if (!bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).isSet) {
-                            matched = match(input, repeatAst.headExpr(), cont);
-                            bitMap.setValue(repeatAst.headExpr().getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        if (!bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).isSet) {
-                            matched = match(input, repeatAst.headExpr(), () ->
-                                    repeatRec(input, repeatAst, matchCount + 1, cont)
-                            );
-                            bitMap.setValue(repeatAst.headExpr().getID(), input.currentPos(), matched);
-
-                        } else {
-                            matched = bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).match;
-                        }
-                        positioning = input.currentPos();
-                    }
-                }
-//        //Memoize only in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (repeatAst.headExpr().getInDegree() > 1) {
-                        if (input.currentPos() == positioning) {
-                            if (!bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).isSet) {
-                                matched = match(input, repeatAst.headExpr(), cont);
-                                bitMap.setValue(repeatAst.headExpr().getID(), input.currentPos(), matched);
-                            } else {
-                                matched = bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).match;
-                            }
-                        } else {
-                            if (!bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).isSet) {
-                                matched = match(input, repeatAst.headExpr(), () ->
-                                        repeatRec(input, repeatAst, matchCount + 1, cont)
-                                );
-                                bitMap.setValue(repeatAst.headExpr().getID(), input.currentPos(), matched);
-
-                            } else {
-                                matched = bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).match;
-                            }
-                            positioning = input.currentPos();
-                        }
-                    } else {
-                        if (input.currentPos() == positioning) {
-                            matched = match(input, repeatAst.headExpr(), cont);
-                        } else {
-                            matched = match(input, repeatAst.headExpr(), () ->
-                                    repeatRec(input, repeatAst, matchCount + 1, cont)
-                            );
-                            positioning = input.currentPos();
-                        }
-                    }
-                }
-//        //Memoize only ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (repeatAst.headExpr().isAncestorNode()) {
-                        if (input.currentPos() == positioning) {
-                            if (!bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).isSet) {
-                                matched = match(input, repeatAst.headExpr(), cont);
-                                bitMap.setValue(repeatAst.headExpr().getID(), input.currentPos(), matched);
-                            } else {
-                                matched = bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).match;
-                            }
-                        } else {
-                            if (!bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).isSet) {
-                                matched = match(input, repeatAst.headExpr(), () ->
-                                        repeatRec(input, repeatAst, matchCount + 1, cont)
-                                );
-                                bitMap.setValue(repeatAst.headExpr().getID(), input.currentPos(), matched);
-
-                            } else {
-                                matched = bitMap.get(repeatAst.headExpr().getID(), input.currentPos()).match;
-                            }
-                            positioning = input.currentPos();
-                        }
-                    } else {
-                        if (input.currentPos() == positioning) {
-                            matched = match(input, repeatAst.headExpr(), cont);
-                        } else {
-                            matched = match(input, repeatAst.headExpr(), () ->
-                                    repeatRec(input, repeatAst, matchCount + 1, cont)
-                            );
-                            positioning = input.currentPos();
-                        }
-                    }
-                }
-            }
-            // end of bitmap
-
-            // START OF ALL MEMOIZATION FOR HASHTABLE
-            else if (memoScheme == MemoisationEncodingScheme.HASH_TABLE) {
-                if (pol == MemoisationPolicy.ALL) {
-                    if (input.currentPos() == positioning) {
-                        if (!memoTable.containsKey(repeatAst.headExpr().getID() + " " + input.currentPos())) {
-                            matched = match(input, repeatAst.headExpr(), cont);
-                            memoTable.put(repeatAst.headExpr().getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(repeatAst.headExpr().getID() + " " + input.currentPos());
-                        }
-                    } else {
-                        if (!memoTable.containsKey(repeatAst.headExpr().getID() + " " + input.currentPos())) {
-                            matched = match(input, repeatAst.headExpr(), () ->
-                                    repeatRec(input, repeatAst, matchCount + 1, cont)
-                            );
-                            positioning = input.currentPos();
-                            memoTable.put(repeatAst.headExpr().getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(repeatAst.headExpr().getID() + " " + input.currentPos());
-                        }
 
-                    }
-                }
-                // START OF IN DEGREE MEMOIZATION FOR HASHTABLE
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (repeatAst.headExpr().getInDegree() > 1) {
-                        if (input.currentPos() == positioning) {
-                            if (!memoTable.containsKey(repeatAst.headExpr().getID() + " " + input.currentPos())) {
-                                matched = match(input, repeatAst.headExpr(), cont);
-                                memoTable.put(repeatAst.headExpr().getID() + " " + input.currentPos(), matched);
-                            } else {
-                                matched = memoTable.get(repeatAst.headExpr().getID() + " " + input.currentPos());
-                            }
-                        } else {
-                            if (!memoTable.containsKey(repeatAst.headExpr().getID() + " " + input.currentPos())) {
-                                matched = match(input, repeatAst.headExpr(), () ->
-                                        repeatRec(input, repeatAst, matchCount + 1, cont)
-                                );
-                                positioning = input.currentPos();
-                                memoTable.put(repeatAst.headExpr().getID() + " " + input.currentPos(), matched);
-                            } else {
-                                matched = memoTable.get(repeatAst.headExpr().getID() + " " + input.currentPos());
-                            }
-
-                        }
-                    }
-                    // IF NOT IN DEGREE DONT MEMOIZE SO ACT NORMAL
-                    else {
-                        if (input.currentPos() == positioning) {
-                            matched = match(input, repeatAst.headExpr(), cont);
-                        } else {
-                            matched = match(input, repeatAst.headExpr(), () ->
-                                    repeatRec(input, repeatAst, matchCount + 1, cont)
-                            );
-                            positioning = input.currentPos();
-                        }
-                    }
-                }
-                //MEMOIZE ANCESTOR NODES IN HASHTABLE
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (repeatAst.headExpr().isAncestorNode()) {
-                        if (input.currentPos() == positioning) {
-                            if (!memoTable.containsKey(repeatAst.headExpr().getID() + " " + input.currentPos())) {
-                                matched = match(input, repeatAst.headExpr(), cont);
-                                memoTable.put(repeatAst.headExpr().getID() + " " + input.currentPos(), matched);
-                            } else {
-                                matched = memoTable.get(repeatAst.headExpr().getID() + " " + input.currentPos());
-                            }
-                        } else {
-                            if (!memoTable.containsKey(repeatAst.headExpr().getID() + " " + input.currentPos())) {
-                                matched = match(input, repeatAst.headExpr(), () ->
-                                        repeatRec(input, repeatAst, matchCount + 1, cont)
-                                );
-
-                                memoTable.put(repeatAst.headExpr().getID() + " " + input.currentPos(), matched);
-                            } else {
-                                matched = memoTable.get(repeatAst.headExpr().getID() + " " + input.currentPos());
-                            }
-                            positioning = input.currentPos();
-                        }
-                    }
-                    // IF NOT ANCESTOR DONT MEMOIZE SO ACT NORMAL
-                    else {
-                        if (input.currentPos() == positioning) {
-                            matched = match(input, repeatAst.headExpr(), cont);
-                        } else {
-                            matched = match(input, repeatAst.headExpr(), () ->
-                                    repeatRec(input, repeatAst, matchCount + 1, cont)
-                            );
-                            positioning = input.currentPos();
-                        }
-                    }
-                }
-                // NO MEMOIZING AT ALL
-            } else {
-                if (input.currentPos() == positioning) {
-                    matched = match(input, repeatAst.headExpr(), cont);
-                } else {
-
-                    matched = match(input, repeatAst.headExpr(), () ->
-                            repeatRec(input, repeatAst, matchCount + 1, cont)
-                    );
-                    positioning = input.currentPos();
-                }
-            }
-        } else {
-            // The normal code goes here
-            if (input.currentPos() == positioning) {
-                matched = match(input, repeatAst.headExpr(), cont);
-            } else {
-
-                matched = match(input, repeatAst.headExpr(), () ->
-                        repeatRec(input, repeatAst, matchCount + 1, cont)
-                );
-                positioning = input.currentPos();
-            }
+        // An iteration that consumed no input cannot make progress,
+        // once the minimum is reached it ends the loop, like in
+        // java.util.regex. Without this check r* with nullable r
+        // loops forever.
+        int iterationStart = input.currentPos();
+        boolean matched = match(input, repeatAst.headExpr(), () ->
+                (input.currentPos() == iterationStart &&
+                        matchCount >= repeatAst.repeatMin)
+                ? cont.run()
+                : repeatRec(input, repeatAst, matchCount + 1, cont));
 
-        }
         if (!matched && (matchCount >= repeatAst.repeatMin)) {
             // r{N} did not match.
             // Here we are matching r{N-1}, we are sure it is matching
             // because this function was called.
             return cont.run();
         }
-        return matched;
         // r{N} matched?
-
+        return matched;
     }
 
     private static boolean alternativeRec(Input input,
@@ -547,100 +138,8 @@ public class BacktrackingMatcher {
             // We tried all alternatives but achieved no match.
             return false;
         }
-        boolean matched;
-        if (pol != MemoisationPolicy.NONE) {
-//        //Start Memoize for Bitmap
-            if (memoScheme == MemoisationEncodingScheme.BIT_MAP) {
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                        matched = match(input, expr.get(currExpr), cont);
-                        bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                    } else {
-                        matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                    }
-                }
-//        Memoize only in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                }
-                //Memoize only ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (expr.get(currExpr).isAncestorNode()) {
-                        if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                } else {
-                    // Let's try next alternative "branch"
-                    // The normal code goes here
-                    matched = match(input, expr.get(currExpr), cont);
-                }
-            } else if (memoScheme == MemoisationEncodingScheme.HASH_TABLE) {
-                //Memoize for All and Hashtable
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                        matched = match(input, expr.get(currExpr), cont);
-                        memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                    } else {
-                        matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                    }
-                }
-                //Memoize for in degree and hashtable
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                }
-                // Memoize for ancestor and hashtable
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (expr.get(currExpr).isAncestorNode()) {
-                        if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                } else {
-                    // Let's try next alternative "branch"
-                    // The normal code goes here
-                    matched = match(input, expr.get(currExpr), cont);
-                }
-            } else {
-                // Let's try next alternative "branch"
-                // The normal code goes here
-                matched = match(input, expr.get(currExpr), cont);
-            }
-        } else {
-            // Let's try next alternative "branch"
-            // The normal code goes here
-            matched = match(input, expr.get(currExpr), cont);
-        }
 
-        if (matched) return true;
+        if (match(input, expr.get(currExpr), cont)) return true;
         // Let's try next alternative "branch"
         return alternativeRec(input, expr, currExpr + 1, cont);
     }
@@ -653,283 +152,109 @@ public class BacktrackingMatcher {
             // We tried all attempts and achieved a match.
             return true;
         }
-        boolean matched;
-
-        //Start Memoize for Bitmap
-        if (pol != MemoisationPolicy.NONE) {
-            if (memoScheme == MemoisationEncodingScheme.BIT_MAP) {
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                        matched = match(input, expr.get(currExpr), cont);
-                        bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                    } else {
-                        matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                    }
-                }
-//        //Memoize only in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                }
-//        //Memoize only ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (expr.get(currExpr).isAncestorNode()) {
-                        if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                } else {
-                    matched = match(input, expr.get(currExpr), cont);
-                }
-            } else if (memoScheme == MemoisationEncodingScheme.HASH_TABLE) {
-                //Memoize all
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                        matched = match(input, expr.get(currExpr), cont);
-                        memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                    } else {
-                        matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                    }
-                }
-                //Memoize for in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                }
-                //Memoize for ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (expr.get(currExpr).isAncestorNode()) {
-                        if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                } else {
-                    matched = match(input, expr.get(currExpr), cont);
-                }
-            } else {
-                matched = match(input, expr.get(currExpr), cont);
-            }
-        }
-        // Memoize for none
-        else {
-            //Normal code goes here
-            matched = match(input, expr.get(currExpr), cont);
-        }
-        if (matched) return posLookAhead(input, expr, currExpr + 1, cont);
-        else {
-            return false;
+
+        if (match(input, expr.get(currExpr), cont)) {
+            return posLookAhead(input, expr, currExpr + 1, cont);
         }
+        return false;
     }
 
     private static boolean negLookAhead(Input input,
                                         List<RAst> expr,
                                         int currExpr,
                                         Cont cont) {
-
         if (currExpr == expr.size()) {
             // We tried all attempts and achieved a match.
             return true;
         }
-        boolean matched;
-        //Start Memoize for Bitmap
-        if (pol != MemoisationPolicy.NONE) {
-            if (memoScheme == MemoisationEncodingScheme.BIT_MAP) {
-                if (pol == MemoisationPolicy.ALL) {
-                    if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                        matched = match(input, expr.get(currExpr), cont);
-                        bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                    } else {
-                        matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                    }
-                    if (!matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                    else {
-                        return false;
-                    }
-                }
-//        //Memoize only in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                    if (!matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                    else {
-                        return false;
-                    }
-                }
-//        //Memoize only ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (expr.get(currExpr).isAncestorNode()) {
-                        if (!bitMap.get(expr.get(currExpr).getID(), input.currentPos()).isSet) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            bitMap.setValue(expr.get(currExpr).getID(), input.currentPos(), matched);
-                        } else {
-                            matched = bitMap.get(expr.get(currExpr).getID(), input.currentPos()).match;
-                        }
-                    } else {
-                        matched = match(input, expr.get(currExpr), cont);
-                    }
-                    if (!matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                    else {
-                        return false;
-                    }
-                }
-                else {
-                    matched = match(input, expr.get(currExpr), cont);
-                }
-            } else if (memoScheme == MemoisationEncodingScheme.HASH_TABLE) {
-                //Start of Memoization for Hashtable
-                if (pol == MemoisationPolicy.ALL) {
-
-                    if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                        matched = match(input, expr.get(currExpr), cont);
-                        memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                    } else {
-                        matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                    }
-                    if (matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                    else {
-                        return false;
-                    }
-                }
-                //Memoize in degree
-                else if (pol == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                        if (matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                        else {
-                            return false;
-                        }
-                    } else {
-
-                        matched = match(input, expr.get(currExpr), cont);
-                        if (!matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                        else {
-                            return false;
-                        }
-                    }
-                }
-                //Memoize ancestors
-                else if (pol == MemoisationPolicy.ANCESTOR_NODES) {
-                    if (expr.get(currExpr).getInDegree() > 1) {
-                        if (!memoTable.containsKey(expr.get(currExpr).getID() + " " + input.currentPos())) {
-                            matched = match(input, expr.get(currExpr), cont);
-                            memoTable.put(expr.get(currExpr).getID() + " " + input.currentPos(), matched);
-                        } else {
-                            matched = memoTable.get(expr.get(currExpr).getID() + " " + input.currentPos());
-                        }
-                        if (matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                        else {
-                            return false;
-                        }
-                    } else {
-
-                        matched = match(input, expr.get(currExpr), cont);
-                        if (!matched) return negLookAhead(input, expr, currExpr + 1, cont);
-                        else {
-                            return false;
-                        }
-                    }
-                } else {
-                    matched = match(input, expr.get(currExpr), cont);
-                }
-            }
-            else {
-                matched = match(input, expr.get(currExpr), cont);
-            }
-        } else {
 
-            matched = match(input, expr.get(currExpr), cont);
-        }
-        if (!matched) return negLookAhead(input, expr, currExpr + 1, cont);
-        else {
-            return false;
+        if (!match(input, expr.get(currExpr), cont)) {
+            return negLookAhead(input, expr, currExpr + 1, cont);
         }
+        return false;
     }
 
-    public static MemoisationPolicy retPol() {
-        return memoPolicy;
+    public static int numOfNodes(RAst regex) {
+        return RAst.numbered(regex).nodeCount();
     }
 
-    public static MemoisationEncodingScheme retScheme() {
-        return memoScheme;
+    static MemoTable newBitMap(int regNodes, int inputLength) {
+        long cells = (long) regNodes * (inputLength + 1);
+        return (cells <= EAGER_BIT_MAP_CELLS)
+                ? new BitMap(regNodes, inputLength)
+                : new PagedBitMap(regNodes, inputLength);
     }
 
-    public static int numOfNodes() {
-        return RAst.nodes;
-    }
+    // Class for bitmap memoization
+    // Every (node, position) cell takes two bits of a long[] word:
+    // 00 - not set, 01 - set and failed, 11 - set and matched.
+    // Positions of a single node are stored next to each other,
+    // so probing neighbouring positions hits the same cache line.
+    static class BitMap implements MemoTable {
+        private static final long SET_BIT = 1L;
+        private static final long MATCH_BIT = 2L;
 
-    // Classes for bitmap memoization
-    static class BitMap {
-        // set as new entry for single memoize point
-        private BitMapEntry[][] bitMap = new BitMapEntry[0][0];
+        private long[] words = new long[0];
+        private int rowLength;
 
         public BitMap(){
 
         }
-        // create bitMap
+        // create bitMap, new long[] is zeroed so every cell starts as not set
         public BitMap(int regNodes, int inputLength){
-            // + 1 to stop out of bounds errors
-            this.bitMap = new BitMapEntry[regNodes + 1][inputLength + 1];
-            for(int i = 0; i < bitMap.length; i++){
-                for(int j = 0; j < bitMap[i].length; j++){
-                    bitMap[i][j] = new BitMapEntry();
-                }
-            }
+            // Node ids are 0 to regNodes-1, positions 0 to inputLength
+            this.rowLength = inputLength + 1;
+            long cells = (long) regNodes * rowLength;
+            // 32 cells per word
+            this.words = new long[(int) ((cells + 31) >>> 5)];
+        }
+        @Override
+        public boolean isSet(int node, int stringPos) {
+            return (cell(node, stringPos) & SET_BIT) != 0;
         }
-        // return specific bitMapEntry
-        public BitMapEntry get(int node, int stringPos){
-            return bitMap[node][stringPos];
+        @Override
+        public boolean isMatch(int node, int stringPos) {
+            return (cell(node, stringPos) & MATCH_BIT) != 0;
+        }
+        @Override
+        public byte lookup(int node, int stringPos) {
+            long cell = cell(node, stringPos);
+            if ((cell & SET_BIT) == 0) return UNSET;
+            return ((cell & MATCH_BIT) != 0) ? MATCHED : FAILED;
         }
         // set value of bitmap entry at positon [node][stringPos]
+        @Override
         public void setValue(int node, int stringPos, boolean match){
-            if(!this.bitMap[node][stringPos].isSet)
-                this.bitMap[node][stringPos].match = match;
-            this.bitMap[node][stringPos].isSet = true;
+            set(node, stringPos, match);
+        }
+        @Override
+        public boolean testAndSetFailed(int node, int stringPos) {
+            return set(node, stringPos, false);
+        }
+        // returns true when the entry was set before
+        private boolean set(int node, int stringPos, boolean match) {
+            long index = index(node, stringPos);
+            int word = (int) (index >>> 5);
+            int shift = (int) (index & 31) << 1;
+
+            if ((words[word] & (SET_BIT << shift)) != 0)
+                return true;
+            long bits = match ? (SET_BIT | MATCH_BIT) : SET_BIT;
+            words[word] |= bits << shift;
+            return false;
         }
 
-    }
-    static class BitMapEntry {
-        public boolean match;
-        public boolean isSet = false;
+        private long cell(int node, int stringPos) {
+            long index = index(node, stringPos);
+            int shift = (int) (index & 31) << 1;
+            return words[(int) (index >>> 5)] >>> shift;
+        }
+
+        private long index(int node, int stringPos) {
+            if (stringPos >= rowLength)
+                throw new ArrayIndexOutOfBoundsException(stringPos);
+            return (long) node * rowLength + stringPos;
+        }
     }
 
 }
-
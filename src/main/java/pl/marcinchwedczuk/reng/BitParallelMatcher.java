@@ -0,0 +1,259 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bit-parallel simulation of the Glushkov automaton of a pattern.
+ * Every GROUP or NEGATED_GROUP leaf is a position, with at most 64
+ * positions the whole set of active states fits in a single long.
+ * A step is a few table lookups and bit operations per character,
+ * with no allocation and no memo table.
+ * Anchors are supported only at the start and at the end of the
+ * pattern, lookaheads are not supported.
+ * Only answers whether there is a match, not where it is.
+ */
+public final class BitParallelMatcher {
+    public static final int MAX_POSITIONS = Long.SIZE;
+
+    private static final int ASCII = 128;
+    private static final int CHUNK_BITS = 8;
+
+    private final RAst[] positions;
+    // Positions that accept the char, for ASCII chars
+    private final long[] asciiMasks;
+    // followTable[chunk][b] - positions that can follow the positions
+    // set in byte b of the state, at the given chunk of 8 bits
+    private final long[][] followTable;
+    private final long first;
+    private final long last;
+    private final boolean nullable;
+    // Pattern starts with ^ or ends with $
+    private final boolean anchoredStart;
+    private final boolean anchoredEnd;
+
+    private BitParallelMatcher(Glushkov g, boolean anchoredStart, boolean anchoredEnd,
+                               long first, long last, boolean nullable) {
+        this.positions = g.positions.toArray(new RAst[0]);
+        this.first = first;
+        this.last = last;
+        this.nullable = nullable;
+        this.anchoredStart = anchoredStart;
+        this.anchoredEnd = anchoredEnd;
+
+        this.asciiMasks = new long[ASCII];
+        for (char c = 0; c < ASCII; c++) {
+            asciiMasks[c] = computeMask(c);
+        }
+
+        int chunks = (positions.length + CHUNK_BITS - 1) / CHUNK_BITS;
+        this.followTable = new long[chunks][1 << CHUNK_BITS];
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int b = 1; b < (1 << CHUNK_BITS); b++) {
+                // Reuse the entry without the lowest bit
+                int low = Integer.numberOfTrailingZeros(b);
+                int p = chunk * CHUNK_BITS + low;
+                long follow = (p < positions.length) ? g.follow[p] : 0L;
+                followTable[chunk][b] = followTable[chunk][b & (b - 1)] | follow;
+            }
+        }
+    }
+
+    /** Returns null when the pattern has more than 64 positions,
+     * lookaheads or anchors inside of it.
+     */
+    public static BitParallelMatcher tryCompile(RAst regex) {
+        List<RAst> parts = (regex.type == RAstType.CONCAT)
+                ? regex.exprs
+                : Collections.singletonList(regex);
+
+        int from = 0, to = parts.size();
+        while (from < to && parts.get(from).type == RAstType.AT_BEGINNING) from++;
+        while (to > from && parts.get(to - 1).type == RAstType.AT_END) to--;
+
+        Glushkov g = new Glushkov();
+        Glushkov.Fragment f = g.empty();
+        for (int i = from; i < to; i++) {
+            Glushkov.Fragment next = g.build(parts.get(i));
+            if (next == null) return null;
+            f = g.concat(f, next);
+        }
+
+        return new BitParallelMatcher(g, from > 0, to < parts.size(),
+                f.first, f.last, f.nullable);
+    }
+
+    public int positionCount() {
+        return positions.length;
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        if (s.isEmpty()) return nullable;
+
+        long state = first & mask(s.charAt(0));
+        for (int i = 1; i < s.length() && state != 0; i++) {
+            state = follow(state) & mask(s.charAt(i));
+        }
+        return (state & last) != 0;
+    }
+
+    /** Checks if any substring of s matches the pattern,
+     * same as find(s).hasMatch but stops at the first match found.
+     */
+    public boolean containsMatch(String s) {
+        if (nullable && (!anchoredEnd || s.isEmpty())) return true;
+
+        long state = 0;
+        for (int i = 0; i < s.length(); i++) {
+            long next = follow(state);
+            // Unanchored search starts the pattern at every position
+            if (i == 0 || !anchoredStart) next |= first;
+
+            state = next & mask(s.charAt(i));
+            if (!anchoredEnd && (state & last) != 0) return true;
+            if (state == 0 && anchoredStart) return false;
+        }
+
+        if ((state & last) != 0) return true;
+        // Empty match at the end, e.g. x*$
+        return nullable && !anchoredStart;
+    }
+
+    private long follow(long state) {
+        long next = 0;
+        for (int chunk = 0; state != 0; chunk++, state >>>= CHUNK_BITS) {
+            next |= followTable[chunk][(int) (state & 0xFF)];
+        }
+        return next;
+    }
+
+    private long mask(char c) {
+        return (c < ASCII) ? asciiMasks[c] : computeMask(c);
+    }
+
+    private long computeMask(char c) {
+        long mask = 0;
+        for (int p = 0; p < positions.length; p++) {
+            RAst leaf = positions[p];
+            boolean inGroup = leaf.chars.contains(c);
+            if (inGroup == (leaf.type == RAstType.GROUP)) {
+                mask |= 1L << p;
+            }
+        }
+        return mask;
+    }
+
+    // Computes first, last and follow sets of a pattern,
+    // every GROUP or NEGATED_GROUP occurrence gets its own position.
+    private static final class Glushkov {
+        final List<RAst> positions = new ArrayList<>();
+        final long[] follow = new long[MAX_POSITIONS];
+
+        static final class Fragment {
+            final boolean nullable;
+            final long first;
+            final long last;
+
+            Fragment(boolean nullable, long first, long last) {
+                this.nullable = nullable;
+                this.first = first;
+                this.last = last;
+            }
+        }
+
+        Fragment empty() {
+            return new Fragment(true, 0, 0);
+        }
+
+        // Returns null for unsupported patterns
+        Fragment build(RAst ast) {
+            switch (ast.type) {
+                case GROUP:
+                case NEGATED_GROUP: {
+                    if (positions.size() == MAX_POSITIONS) return null;
+                    long p = 1L << positions.size();
+                    positions.add(ast);
+                    return new Fragment(false, p, p);
+                }
+
+                case CONCAT: {
+                    Fragment f = empty();
+                    for (RAst e : ast.exprs) {
+                        Fragment next = build(e);
+                        if (next == null) return null;
+                        f = concat(f, next);
+                    }
+                    return f;
+                }
+
+                case ALTERNATIVE: {
+                    Fragment f = new Fragment(false, 0, 0);
+                    for (RAst e : ast.exprs) {
+                        Fragment next = build(e);
+                        if (next == null) return null;
+                        f = new Fragment(f.nullable || next.nullable,
+                                f.first | next.first,
+                                f.last | next.last);
+                    }
+                    return f;
+                }
+
+                case REPEAT:
+                    return buildRepeat(ast);
+
+                default:
+                    // Anchors inside of the pattern and lookaheads
+                    return null;
+            }
+        }
+
+        // Counted repeats are unrolled, every copy has its own positions
+        private Fragment buildRepeat(RAst ast) {
+            RAst body = ast.headExpr();
+            if (ast.repeatMax < ast.repeatMin) {
+                return new Fragment(false, 0, 0);
+            }
+            if (ast.repeatMin > MAX_POSITIONS) return null;
+
+            Fragment f = empty();
+            for (long i = 0; i < ast.repeatMin; i++) {
+                Fragment copy = build(body);
+                if (copy == null) return null;
+                f = concat(f, copy);
+            }
+
+            if (ast.repeatMax == RAst.UNBOUND) {
+                Fragment loop = build(body);
+                if (loop == null) return null;
+                addFollow(loop.last, loop.first);
+                return concat(f, new Fragment(true, loop.first, loop.last));
+            }
+
+            // r{0,k} as k optional copies of r
+            if (ast.repeatMax - ast.repeatMin > MAX_POSITIONS) return null;
+            for (long i = ast.repeatMin; i < ast.repeatMax; i++) {
+                Fragment copy = build(body);
+                if (copy == null) return null;
+                f = concat(f, new Fragment(true, copy.first, copy.last));
+            }
+            return f;
+        }
+
+        Fragment concat(Fragment a, Fragment b) {
+            addFollow(a.last, b.first);
+            return new Fragment(a.nullable && b.nullable,
+                    a.nullable ? (a.first | b.first) : a.first,
+                    b.nullable ? (a.last | b.last) : b.last);
+        }
+
+        private void addFollow(long from, long to) {
+            while (from != 0) {
+                int p = Long.numberOfTrailingZeros(from);
+                follow[p] |= to;
+                from &= from - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of chars used by GROUP and NEGATED_GROUP nodes.
+ * ASCII chars are kept in a 128-bit bitmap, the whole set also as
+ * sorted, disjoint, inclusive ranges. contains() is a bit test for
+ * ASCII and a binary search over the ranges for the rest, neither
+ * allocates. A range covering the whole alphabet takes a few bytes.
+ */
+public final class CharClass {
+    public static final CharClass EMPTY = new CharClass(new char[0]);
+
+    // ASCII chars 0-63 and 64-127
+    private final long lowBits;
+    private final long highBits;
+    // from0, to0, from1, to1, ... sorted and not touching each other
+    private final char[] ranges;
+
+    private CharClass(char[] ranges) {
+        this.ranges = ranges;
+
+        long low = 0, high = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            int to = Math.min(ranges[i + 1], 127);
+            for (int c = ranges[i]; c <= to; c++) {
+                if (c < 64) low |= 1L << c;
+                else high |= 1L << (c - 64);
+            }
+        }
+        this.lowBits = low;
+        this.highBits = high;
+    }
+
+    public static CharClass of(char... chars) {
+        Builder builder = builder();
+        for (char c : chars) {
+            builder.add(c);
+        }
+        return builder.build();
+    }
+
+    /** Chars from to to, both inclusive. Empty when from > to. */
+    public static CharClass range(char from, char to) {
+        return builder().addRange(from, to).build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public boolean contains(char c) {
+        if (c < 64) return (lowBits & (1L << c)) != 0;
+        if (c < 128) return (highBits & (1L << (c - 64))) != 0;
+
+        // Last range starting at or before c
+        int lo = 0, hi = ranges.length / 2 - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges[2 * mid] <= c) lo = mid + 1;
+            else hi = mid - 1;
+        }
+        return hi >= 0 && c <= ranges[2 * hi + 1];
+    }
+
+    public boolean isEmpty() {
+        return ranges.length == 0;
+    }
+
+    /** Number of chars in the class. */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            size += ranges[i + 1] - ranges[i] + 1;
+        }
+        return size;
+    }
+
+    /** Smallest char of a non empty class. */
+    public char first() {
+        if (ranges.length == 0)
+            throw new IllegalStateException("Char class is empty.");
+        return ranges[0];
+    }
+
+    public int rangeCount() {
+        return ranges.length / 2;
+    }
+
+    /** First char of range i, ranges are sorted. */
+    public char rangeFrom(int i) {
+        return ranges[2 * i];
+    }
+
+    /** Last char of range i, inclusive. */
+    public char rangeTo(int i) {
+        return ranges[2 * i + 1];
+    }
+
+    public CharClass union(CharClass other) {
+        return builder().addAll(this).addAll(other).build();
+    }
+
+    /** All chars not in this class. */
+    public CharClass complement() {
+        Builder builder = builder();
+        int next = Character.MIN_VALUE;
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (ranges[i] > next) builder.addRange((char) next, (char) (ranges[i] - 1));
+            next = ranges[i + 1] + 1;
+        }
+        if (next <= Character.MAX_VALUE) builder.addRange((char) next, Character.MAX_VALUE);
+        return builder.build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CharClass && Arrays.equals(ranges, ((CharClass) o).ranges);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(ranges);
+    }
+
+    /** All chars in order, e.g. abc for [a-c]. */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int c = ranges[i]; c <= ranges[i + 1]; c++) {
+                s.append((char) c);
+            }
+        }
+        return s.toString();
+    }
+
+    public static final class Builder {
+        private char[] ranges = new char[16];
+        private int size = 0;
+
+        private Builder() { }
+
+        public Builder add(char c) {
+            return addRange(c, c);
+        }
+
+        /** Does nothing when from > to. */
+        public Builder addRange(char from, char to) {
+            if (from > to) return this;
+
+            if (size == ranges.length) {
+                ranges = Arrays.copyOf(ranges, 2 * size);
+            }
+            ranges[size++] = from;
+            ranges[size++] = to;
+            return this;
+        }
+
+        public Builder addAll(CharClass chars) {
+            for (int i = 0; i < chars.ranges.length; i += 2) {
+                addRange(chars.ranges[i], chars.ranges[i + 1]);
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        // Sorts the ranges and merges overlapping or adjacent ones
+        public CharClass build() {
+            int count = size / 2;
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = ((long) ranges[2 * i] << 16) | ranges[2 * i + 1];
+            }
+            Arrays.sort(packed);
+
+            char[] merged = new char[size];
+            int n = 0;
+            for (long range : packed) {
+                char from = (char) (range >>> 16);
+                char to = (char) range;
+
+                if (n > 0 && from <= merged[n - 1] + 1) {
+                    if (to > merged[n - 1]) merged[n - 1] = to;
+                } else {
+                    merged[n++] = from;
+                    merged[n++] = to;
+                }
+            }
+            return (n == 0) ? EMPTY : new CharClass(Arrays.copyOf(merged, n));
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package pl.marcinchwedczuk.reng;
+
+import javax.tools.*;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Backtracking matcher specialised for a single pattern at runtime.
+ * The NfaProgram is turned into the source of a class with one switch
+ * case per instruction: character tests become inline range checks,
+ * consecutive instructions fall through to each other as straight-line
+ * code, jump targets and memo probes are constants. The source is
+ * compiled in memory with the system Java compiler and defined in this
+ * package, so HotSpot can inline the whole pattern.
+ * Runs the same search as IterativeBacktrackingMatcher.
+ */
+public final class CodegenMatcher {
+    // HotSpot does not compile methods above 8000 bytes of bytecode,
+    // a larger generated method would stay interpreted
+    static final int MAX_INSTRUCTIONS = 200;
+    static final int MAX_RANGES = 400;
+
+    private static final String PACKAGE = CodegenMatcher.class.getPackage().getName();
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    private final NfaProgram program;
+    private final MemoisationEncodingScheme scheme;
+    private final boolean[] memoSites;
+    private final int memoSiteCount;
+    private final Program generated;
+    private final StartPositions starts;
+
+    private CodegenMatcher(NfaProgram program,
+                           StartPositions starts,
+                           MemoisationEncodingScheme scheme,
+                           boolean[] memoSites,
+                           Program generated) {
+        this.program = program;
+        this.starts = starts;
+        this.scheme = scheme;
+        this.memoSites = memoSites;
+        this.generated = generated;
+
+        int count = 0;
+        for (boolean site : memoSites) {
+            if (site) count++;
+        }
+        this.memoSiteCount = count;
+    }
+
+    /** False when running on a JRE without the system Java compiler,
+     * tryCompile() returns null then and callers keep their matcher.
+     */
+    public static boolean isAvailable() {
+        return Javac.COMPILER != null;
+    }
+
+    /** Returns null when the pattern has lookaheads, is too large to
+     * be compiled by the JIT, or when no Java compiler is available
+     * (running on a JRE). Compiling takes tens of milliseconds,
+     * so this is only worth it for patterns used on a lot of input.
+     */
+    public static CodegenMatcher tryCompile(RAst regex,
+                                            MemoisationPolicy policy,
+                                            MemoisationEncodingScheme scheme) {
+        if (!isAvailable()) return null;
+        if (!NfaProgram.supports(regex)) return null;
+
+        NfaProgram program;
+        try {
+            program = NfaProgram.compile(regex);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (program.size() > MAX_INSTRUCTIONS) return null;
+
+        boolean[] memoSites = IterativeBacktrackingMatcher.markMemoSites(program, policy);
+        String className = "Pattern" + classCounter.incrementAndGet();
+        String source = new SourceWriter(program, memoSites).write(className);
+        if (source == null) return null;
+
+        Program generated = compileSource(PACKAGE + "." + className, source);
+        if (generated == null) return null;
+
+        return new CodegenMatcher(program, StartPositions.of(regex), scheme, memoSites, generated);
+    }
+
+    /** Finds the leftmost match in s. */
+    public Match find(String s) {
+        try (MemoTable memo = newMemoTable(s.length())) {
+            Frame frame = new Frame(program.loopDepth, memo);
+            // Memo entries do not depend on the start position
+            for (int start = starts.next(s, 0);
+                     start >= 0;
+                     start = starts.next(s, start + 1)) {
+                if (generated.run(s, start, false, frame)) {
+                    return new Match(s, true, start, frame.matchEnd);
+                }
+            }
+            return new Match(s, false, -1, -1);
+        }
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        try (MemoTable memo = newMemoTable(s.length())) {
+            return generated.run(s, 0, true, new Frame(program.loopDepth, memo));
+        }
+    }
+
+    // Used by tests
+    Class<?> generatedClass() {
+        return generated.getClass();
+    }
+
+    private MemoTable newMemoTable(int inputLength) {
+        return IterativeBacktrackingMatcher.newMemoTable(
+                scheme, memoSiteCount, program.size() << program.loopDepth, inputLength);
+    }
+
+    // Implemented by the generated classes
+    interface Program {
+        boolean run(String s, int start, boolean wholeInput, Frame frame);
+    }
+
+    // Backtracking stack and memo table of a single match,
+    // used by the generated code
+    static final class Frame {
+        private final MemoTable memo;
+        private final int depth;
+        // Choice point (state, position), a state is a pc with the
+        // loops entered at the position in its lowest depth bits
+        private int[] first = new int[64];
+        private int[] second = new int[64];
+        private int size = 0;
+
+        int pc;
+        int pos;
+        int entered;
+        int matchEnd = -1;
+
+        Frame(int loopDepth, MemoTable memo) {
+            this.depth = loopDepth;
+            this.memo = memo;
+        }
+
+        void begin(int start) {
+            size = 0;
+            pushChoice(0, start, 0);
+        }
+
+        // Pops the next choice point into pc, pos and entered
+        boolean pop() {
+            if (size == 0) return false;
+
+            size--;
+            pc = first[size] >>> depth;
+            entered = first[size] - (pc << depth);
+            pos = second[size];
+            return true;
+        }
+
+        void pushChoice(int pc, int pos, int entered) {
+            push((pc << depth) | entered, pos);
+        }
+
+        // Returns true when (pc, entered, pos) was already explored
+        boolean seen(int pc, int entered, int pos) {
+            return memo != null && memo.testAndSetFailed((pc << depth) | entered, pos);
+        }
+
+        private void push(int a, int b) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, 2 * size);
+                second = Arrays.copyOf(second, 2 * size);
+            }
+            first[size] = a;
+            second[size] = b;
+            size++;
+        }
+    }
+
+    // Generates Java source equivalent to IterativeBacktrackingMatcher
+    // running the given program
+    private static final class SourceWriter {
+        private final NfaProgram program;
+        private final boolean[] memoSites;
+        private final StringBuilder out = new StringBuilder();
+        private int ranges = 0;
+
+        SourceWriter(NfaProgram program, boolean[] memoSites) {
+            this.program = program;
+            this.memoSites = memoSites;
+        }
+
+        // Returns null when character classes are too large to inline
+        String write(String className) {
+            line(0, "package " + PACKAGE + ";");
+            line(0, "");
+            line(0, "final class " + className + " implements CodegenMatcher.Program {");
+            line(1, "@Override");
+            line(1, "public boolean run(String s, int start, boolean wholeInput, CodegenMatcher.Frame f) {");
+            line(2, "final int length = s.length();");
+            line(2, "f.begin(start);");
+            line(2, "while (f.pop()) {");
+            line(3, "int pc = f.pc;");
+            line(3, "int pos = f.pos;");
+            line(3, "int m = f.entered;");
+            line(3, "char c;");
+            line(3, "thread:");
+            line(3, "while (true) {");
+            line(4, "switch (pc) {");
+
+            for (int pc = 0; pc < program.size(); pc++) {
+                line(4, "case " + pc + ":");
+                if (memoSites[pc]) {
+                    line(5, "if (f.seen(" + pc + ", m, pos)) break thread;");
+                }
+                writeInstruction(pc);
+                if (ranges > MAX_RANGES) return null;
+            }
+
+            line(4, "default:");
+            line(5, "throw new AssertionError(\"Unknown pc: \" + pc);");
+            line(4, "}");
+            line(3, "}");
+            line(2, "}");
+            line(2, "return false;");
+            line(1, "}");
+            line(0, "}");
+            return out.toString();
+        }
+
+        // Instructions that continue at pc + 1 fall through to the next case
+        private void writeInstruction(int pc) {
+            switch (program.op[pc]) {
+                case NfaProgram.CHAR:
+                case NfaProgram.NOT_CHAR:
+                    line(5, "if (pos == length) break thread;");
+                    line(5, "c = s.charAt(pos);");
+                    line(5, "if (!" + test(pc) + ") break thread;");
+                    line(5, "pos++;");
+                    line(5, "m = 0;");
+                    break;
+
+                case NfaProgram.SPLIT: {
+                    int loop = program.loop[pc];
+                    if (loop >= 0) {
+                        int bit = 1 << program.loopLevel[loop];
+                        line(5, "f.pushChoice(" + program.y[pc] + ", pos, m & " + ~bit + ");");
+                        line(5, "m |= " + bit + ";");
+                    } else {
+                        line(5, "f.pushChoice(" + program.y[pc] + ", pos, m);");
+                    }
+                    line(5, "pc = " + program.x[pc] + ";");
+                    line(5, "continue thread;");
+                    break;
+                }
+
+                case NfaProgram.JMP: {
+                    int loop = program.loop[pc];
+                    if (loop >= 0) {
+                        // An empty iteration ends the loop
+                        int bit = 1 << program.loopLevel[loop];
+                        line(5, "if ((m & " + bit + ") != 0) {");
+                        line(6, "m &= " + ~bit + ";");
+                        line(6, "pc = " + program.y[pc] + ";");
+                        line(5, "} else {");
+                        line(6, "pc = " + program.x[pc] + ";");
+                        line(5, "}");
+                    } else {
+                        line(5, "pc = " + program.x[pc] + ";");
+                    }
+                    line(5, "continue thread;");
+                    break;
+                }
+
+                case NfaProgram.AT_BEGINNING:
+                    line(5, "if (pos != 0) break thread;");
+                    break;
+
+                case NfaProgram.AT_END:
+                    line(5, "if (pos != length) break thread;");
+                    break;
+
+                case NfaProgram.MATCH:
+                    line(5, "if (wholeInput && pos != length) break thread;");
+                    line(5, "f.matchEnd = pos;");
+                    line(5, "return true;");
+                    break;
+
+                default:
+                    throw new AssertionError("Unknown opcode: " + program.op[pc]);
+            }
+        }
+
+        // Inline range checks for the character class at pc
+        private String test(int pc) {
+            CharClass chars = program.node[pc].chars;
+
+            StringBuilder test = new StringBuilder();
+            for (int r = 0; r < chars.rangeCount(); r++) {
+                char from = chars.rangeFrom(r);
+                char to = chars.rangeTo(r);
+                ranges++;
+
+                if (test.length() > 0) test.append(" || ");
+                if (from == to) {
+                    test.append("c == ").append((int) from);
+                } else {
+                    test.append("(c >= ").append((int) from)
+                            .append(" && c <= ").append((int) to).append(")");
+                }
+            }
+
+            String inGroup = (test.length() == 0) ? "false" : "(" + test + ")";
+            return (program.op[pc] == NfaProgram.CHAR)
+                    ? inGroup
+                    : "!" + inGroup;
+        }
+
+        private void line(int indent, String text) {
+            for (int i = 0; i < indent; i++) out.append("    ");
+            out.append(text).append('\n');
+        }
+    }
+
+    // Looked up once, the lookup and the file manager are expensive
+    private static final class Javac {
+        static final JavaCompiler COMPILER = ToolProvider.getSystemJavaCompiler();
+        static final StandardJavaFileManager FILES = (COMPILER != null)
+                ? COMPILER.getStandardFileManager(null, null, null)
+                : null;
+        static final List<String> OPTIONS =
+                Arrays.asList("-g:none", "-classpath", classPath());
+    }
+
+    private static Program compileSource(String className, String source) {
+        if (Javac.COMPILER == null) return null;
+
+        Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+        JavaFileManager files = new ForwardingJavaFileManager<JavaFileManager>(Javac.FILES) {
+            @Override
+            public JavaFileObject getJavaFileForOutput(Location location, String name,
+                                                       JavaFileObject.Kind kind,
+                                                       FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("bytes:///" + name), kind) {
+                    @Override
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        // The shared file manager is not thread safe
+        Boolean ok;
+        synchronized (Javac.class) {
+            ok = Javac.COMPILER.getTask(null, files, null, Javac.OPTIONS, null,
+                    Collections.singletonList(file)).call();
+        }
+        if (!Boolean.TRUE.equals(ok)) return null;
+
+        ByteArrayOutputStream bytes = classes.get(className);
+        if (bytes == null) return null;
+
+        try {
+            Class<?> generated = defineInThisPackage(bytes.toByteArray());
+            return (Program) generated.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | SecurityException e) {
+            return null;
+        }
+    }
+
+    // The generated class uses package-private Frame and Program, so it
+    // must be defined by our class loader. Hidden classes (Java 15+) are
+    // unloaded with their matcher, older JVMs keep the class for good.
+    // Looked up reflectively, the sources are compiled for Java 8.
+    private static Class<?> defineInThisPackage(byte[] code) throws ReflectiveOperationException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Method defineHidden = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, Array.newInstance(option, 0).getClass());
+            MethodHandles.Lookup hidden = (MethodHandles.Lookup) defineHidden.invoke(
+                    lookup, code, true, Array.newInstance(option, 0));
+            return hidden.lookupClass();
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            // Java 8 to 14
+        }
+
+        try {
+            Method defineClass = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+            return (Class<?>) defineClass.invoke(lookup, (Object) code);
+        } catch (NoSuchMethodException e) {
+            // Java 8
+        }
+
+        Method defineClass = ClassLoader.class.getDeclaredMethod("defineClass",
+                byte[].class, int.class, int.class);
+        defineClass.setAccessible(true);
+        return (Class<?>) defineClass.invoke(
+                CodegenMatcher.class.getClassLoader(), code, 0, code.length);
+    }
+
+    // The generated code needs our classes, which may not be on the
+    // java.class.path when we run inside of a container or a test runner
+    private static String classPath() {
+        String classPath = System.getProperty("java.class.path");
+        CodeSource source = CodegenMatcher.class.getProtectionDomain().getCodeSource();
+        if (source == null) return classPath;
+
+        try {
+            String own = new File(source.getLocation().toURI()).getPath();
+            return own + File.pathSeparator + classPath;
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            return classPath;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package pl.marcinchwedczuk.reng;
+
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A regex prepared once for many matches.
+ * Simplifying the pattern, unrolling its counted repeats, numbering
+ * its nodes, deciding which of them
+ * are memoisation sites and building the MatcherTree happens here,
+ * so a match only allocates its memo table.
+ * Instances are immutable and can be shared between threads,
+ * apart from the eviction statistics.
+ */
+public final class CompiledPattern {
+    private final RAst regex;
+    private final MemoisationPolicy policy;
+    private final MemoisationEncodingScheme scheme;
+    private final MemoStorage storage;
+    // Indexed by node id
+    private final boolean[] memoSites;
+    private final int memoSiteCount;
+    private final MatcherTree tree;
+    // Input without any of them is rejected before the memo is allocated
+    private final RequiredLiterals requiredLiterals;
+    private final long memoBudgetBytes;
+    // Answers matches() when the pattern was small enough, may be null
+    private final DfaMatcher fullDfa;
+    // Answers find() in linear time when the pattern allows it, may be null
+    private final ReverseSearchMatcher reverseSearch;
+    private final LongAdder memoEvictions = new LongAdder();
+
+    private CompiledPattern(RAst regex,
+                            MemoisationPolicy policy,
+                            MemoisationEncodingScheme scheme,
+                            MemoStorage storage) {
+        this.regex = regex;
+        this.policy = policy;
+        this.scheme = scheme;
+        this.storage = storage;
+        this.memoBudgetBytes = UNLIMITED;
+        this.fullDfa = null;
+        this.reverseSearch = null;
+        this.memoSites = new boolean[regex.nodeCount()];
+
+        int[] inDegree = (policy == MemoisationPolicy.IN_DEGREE_GREATER_THAN_1)
+                ? RAst.calcInDegree(regex)
+                : null;
+        markMemoSites(regex, inDegree);
+        unmarkCountedRepeatBodies(regex, false);
+        unmarkSharedNodes(regex);
+
+        int count = 0;
+        for (boolean site : memoSites) {
+            if (site) count++;
+        }
+        this.memoSiteCount = count;
+        this.tree = MatcherTree.compile(regex, memoSites);
+        this.requiredLiterals = RequiredLiterals.of(regex);
+    }
+
+    private CompiledPattern(CompiledPattern other,
+                            long memoBudgetBytes,
+                            DfaMatcher fullDfa,
+                            ReverseSearchMatcher reverseSearch) {
+        this.regex = other.regex;
+        this.policy = other.policy;
+        this.scheme = other.scheme;
+        this.storage = other.storage;
+        this.memoSites = other.memoSites;
+        this.memoSiteCount = other.memoSiteCount;
+        this.tree = other.tree;
+        this.requiredLiterals = other.requiredLiterals;
+        this.memoBudgetBytes = memoBudgetBytes;
+        this.fullDfa = fullDfa;
+        this.reverseSearch = reverseSearch;
+    }
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    public static CompiledPattern compile(RAst regex,
+                                          MemoisationPolicy policy,
+                                          MemoisationEncodingScheme scheme) {
+        return compile(regex, policy, scheme, MemoStorage.HEAP);
+    }
+
+    /** Storage applies to the BIT_MAP and RLE schemes,
+     * the HASH_TABLE scheme always lives on the heap.
+     */
+    public static CompiledPattern compile(RAst regex,
+                                          MemoisationPolicy policy,
+                                          MemoisationEncodingScheme scheme,
+                                          MemoStorage storage) {
+        // A numbered pattern is used as it is, its ids may already be in use
+        RAst prepared = regex.isNumbered()
+                ? regex
+                : RAst.numbered(RepeatUnroller.unroll(RAstSimplifier.simplify(regex)));
+        return new CompiledPattern(prepared, policy, scheme, storage);
+    }
+
+    public static CompiledPattern compile(String regex,
+                                          MemoisationPolicy policy,
+                                          MemoisationEncodingScheme scheme) {
+        return compile(RParser.parse(regex), policy, scheme);
+    }
+
+    public static CompiledPattern compile(String regex) {
+        return compile(regex,
+                MemoisationPolicy.ALL,
+                MemoisationEncodingScheme.HASH_TABLE);
+    }
+
+    /** Returns a copy of this pattern whose HASH_TABLE memo is limited
+     * to about budgetBytes per match. When the table is full it evicts
+     * entries instead of growing, results stay the same but the match
+     * may backtrack more. Other schemes ignore the budget.
+     */
+    public CompiledPattern withMemoBudget(long budgetBytes) {
+        if (budgetBytes <= 0)
+            throw new IllegalArgumentException("Memo budget must be positive: " + budgetBytes);
+        return new CompiledPattern(this, budgetBytes, fullDfa, reverseSearch);
+    }
+
+    public CompiledPattern withFullDfa() {
+        return withFullDfa(DfaMatcher.DEFAULT_MAX_STATES);
+    }
+
+    /** Returns a copy of this pattern that answers matches() with a
+     * minimised DFA built now. When the pattern has lookaheads or
+     * determinisation needs more than maxStates states the copy keeps
+     * using the backtracking matcher, see hasFullDfa().
+     */
+    public CompiledPattern withFullDfa(int maxStates) {
+        return new CompiledPattern(this, memoBudgetBytes,
+                DfaMatcher.tryCompile(regex, maxStates), reverseSearch);
+    }
+
+    /** Returns a copy of this pattern that answers find() with a
+     * forward scan for the end of the match and a scan of the reversed
+     * pattern for its start, instead of restarting the backtracking
+     * matcher at every position. When the pattern has lookaheads or is
+     * too large to unroll the copy keeps backtracking, see hasReverseSearch().
+     */
+    public CompiledPattern withReverseSearch() {
+        ReverseSearchMatcher search = null;
+        if (NfaProgram.supports(regex)) {
+            try {
+                search = ReverseSearchMatcher.compile(regex);
+            } catch (IllegalArgumentException e) {
+                // Too large to unroll
+            }
+        }
+        return new CompiledPattern(this, memoBudgetBytes, fullDfa, search);
+    }
+
+    /** Finds the leftmost match in s. */
+    public Match find(String s) {
+        if (reverseSearch != null) {
+            return reverseSearch.find(s);
+        }
+        if (!requiredLiterals.mayMatch(s)) {
+            return new Match(s, false, -1, -1);
+        }
+
+        try (MemoTable memo = newMemoTable(s.length())) {
+            try {
+                return tree.find(s, memo);
+            } finally {
+                recordEvictions(memo);
+            }
+        }
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        if (fullDfa != null) {
+            return fullDfa.matches(s);
+        }
+        if (!requiredLiterals.mayMatch(s)) {
+            return false;
+        }
+
+        try (MemoTable memo = newMemoTable(s.length())) {
+            try {
+                return tree.matches(s, memo);
+            } finally {
+                recordEvictions(memo);
+            }
+        }
+    }
+
+    public RAst regex() {
+        return regex;
+    }
+
+    public MemoisationPolicy policy() {
+        return policy;
+    }
+
+    public MemoisationEncodingScheme scheme() {
+        return scheme;
+    }
+
+    public MemoStorage storage() {
+        return storage;
+    }
+
+    public boolean isMemoSite(RAst node) {
+        return memoSites[node.getID()];
+    }
+
+    public int memoSiteCount() {
+        return memoSiteCount;
+    }
+
+    public boolean hasFullDfa() {
+        return fullDfa != null;
+    }
+
+    public boolean hasReverseSearch() {
+        return reverseSearch != null;
+    }
+
+    public long memoBudgetBytes() {
+        return memoBudgetBytes;
+    }
+
+    /** Total number of memo entries evicted by all matches so far. */
+    public long memoEvictions() {
+        return memoEvictions.sum();
+    }
+
+    private void recordEvictions(MemoTable memo) {
+        if (memo != null) {
+            memoEvictions.add(memo.evictions());
+        }
+    }
+
+    // Returns null when nothing needs to be memoised
+    private MemoTable newMemoTable(int inputLength) {
+        if (memoSiteCount == 0) {
+            return null;
+        }
+
+        switch (scheme) {
+            case BIT_MAP:
+                if (storage == MemoStorage.HEAP) {
+                    return BacktrackingMatcher.newBitMap(regex.nodeCount(), inputLength);
+                }
+                return new OffHeapBitMap(regex.nodeCount(), inputLength,
+                        storage == MemoStorage.MAPPED_FILE);
+            case HASH_TABLE:
+                return new LongHashMemoTable(memoBudgetBytes);
+            case RLE:
+                return new RleMemoTable(regex.nodeCount(),
+                        storage != MemoStorage.HEAP);
+            default:
+                throw new AssertionError("Unknown enum value: " + scheme);
+        }
+    }
+
+    private void markMemoSites(RAst ast, int[] inDegree) {
+        switch (policy) {
+            case NONE:
+                return;
+            case ALL:
+                memoSites[ast.getID()] = true;
+                break;
+            case IN_DEGREE_GREATER_THAN_1:
+                memoSites[ast.getID()] = inDegree[ast.getID()] > 1;
+                break;
+            case ANCESTOR_NODES:
+                memoSites[ast.getID()] = ast.isAncestorNode();
+                break;
+            default:
+                throw new AssertionError("Unknown enum value: " + policy);
+        }
+
+        for (RAst e : ast.exprs) {
+            markMemoSites(e, inDegree);
+        }
+    }
+
+    // The body of r{N,M} is followed by a different continuation on
+    // every iteration, so (node, position) does not determine whether
+    // it matches and memoising it gives wrong results.
+    // Only r*, r+ and r? continue the same way after every iteration.
+    // Counted repeats are unrolled when compiled, see RepeatUnroller,
+    // this is left for the ones too large for that and numbered input.
+    private void unmarkCountedRepeatBodies(RAst ast, boolean inCountedBody) {
+        if (inCountedBody) {
+            memoSites[ast.getID()] = false;
+        }
+
+        boolean counted = RepeatUnroller.isCounted(ast);
+        for (RAst e : ast.exprs) {
+            unmarkCountedRepeatBodies(e, inCountedBody || counted);
+        }
+    }
+
+    // A node shared by backreferences runs with the continuation of
+    // each of its uses, and so does everything inside it, so neither
+    // can be memoised. This includes the ones in unrolled repeat bodies.
+    private void unmarkSharedNodes(RAst regex) {
+        int[] uses = new int[regex.nodeCount()];
+        boolean[] visited = new boolean[regex.nodeCount()];
+        countUses(regex, uses, visited);
+
+        boolean[] unmarked = new boolean[regex.nodeCount()];
+        unmarkShared(regex, false, uses, unmarked);
+    }
+
+    private static void countUses(RAst ast, int[] uses, boolean[] visited) {
+        uses[ast.getID()]++;
+        if (visited[ast.getID()]) return;
+        visited[ast.getID()] = true;
+
+        for (RAst e : ast.exprs) {
+            countUses(e, uses, visited);
+        }
+    }
+
+    private void unmarkShared(RAst ast, boolean inShared, int[] uses, boolean[] unmarked) {
+        if (unmarked[ast.getID()]) return;
+
+        boolean shared = inShared || uses[ast.getID()] > 1;
+        if (shared) {
+            memoSites[ast.getID()] = false;
+            unmarked[ast.getID()] = true;
+        }
+
+        for (RAst e : ast.exprs) {
+            unmarkShared(e, shared, uses, unmarked);
+        }
+    }
+}
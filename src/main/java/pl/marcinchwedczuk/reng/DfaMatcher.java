@@ -0,0 +1,239 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Complete DFA built ahead of time and minimised.
+ * Matching is a loop over an int[] transition table, with no
+ * allocation and no state cache. Determinisation can blow up
+ * exponentially, so compilation gives up above a state cap and the
+ * caller keeps using another engine.
+ * Only answers whether there is a match, not where it is.
+ */
+public final class DfaMatcher {
+    public static final int DEFAULT_MAX_STATES = 1000;
+
+    private final AlphabetPartition alphabet;
+    // Used by matches()
+    private final Dfa anchored;
+    // Used by containsMatch()
+    private final Dfa unanchored;
+    // Empty input is at the beginning and at the end at once,
+    // which matters only for patterns like $^
+    private final boolean matchesEmpty;
+
+    private DfaMatcher(AlphabetPartition alphabet,
+                       Dfa anchored, Dfa unanchored,
+                       boolean matchesEmpty) {
+        this.alphabet = alphabet;
+        this.anchored = anchored;
+        this.unanchored = unanchored;
+        this.matchesEmpty = matchesEmpty;
+    }
+
+    public static DfaMatcher tryCompile(RAst regex) {
+        return tryCompile(regex, DEFAULT_MAX_STATES);
+    }
+
+    /** Returns null when the pattern has lookaheads or when either
+     * automaton needs more than maxStates states before minimisation.
+     */
+    public static DfaMatcher tryCompile(RAst regex, int maxStates) {
+        if (!NfaProgram.supports(regex)) return null;
+
+        NfaProgram program;
+        try {
+            program = NfaProgram.compile(regex);
+        } catch (IllegalArgumentException e) {
+            // Too large to unroll
+            return null;
+        }
+
+        AlphabetPartition alphabet = AlphabetPartition.of(program);
+        NfaClosure closure = new NfaClosure(program);
+
+        Dfa anchored = Dfa.build(closure, alphabet, false, maxStates);
+        if (anchored == null) return null;
+        Dfa unanchored = Dfa.build(closure, alphabet, true, maxStates);
+        if (unanchored == null) return null;
+
+        boolean matchesEmpty = closure.acceptsAtEnd(closure.start(), true);
+        return new DfaMatcher(alphabet,
+                anchored.minimised(), unanchored.minimised(),
+                matchesEmpty);
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        if (s.isEmpty()) return matchesEmpty;
+
+        Dfa dfa = anchored;
+        int[] table = dfa.table;
+        int classCount = dfa.classCount;
+        int state = dfa.start;
+
+        for (int i = 0; i < s.length(); i++) {
+            state = table[state * classCount + alphabet.classOf(s.charAt(i))];
+            if (state == dfa.dead) return false;
+        }
+        return dfa.accepting[state];
+    }
+
+    /** Checks if any substring of s matches the pattern,
+     * same as find(s).hasMatch but stops at the first match found.
+     */
+    public boolean containsMatch(String s) {
+        if (s.isEmpty()) return matchesEmpty;
+
+        Dfa dfa = unanchored;
+        int[] table = dfa.table;
+        int classCount = dfa.classCount;
+        int state = dfa.start;
+
+        for (int i = 0; i < s.length(); i++) {
+            if (dfa.matching[state]) return true;
+            state = table[state * classCount + alphabet.classOf(s.charAt(i))];
+        }
+        return dfa.accepting[state];
+    }
+
+    /** Number of states of the minimised automaton used by matches(). */
+    public int stateCount() {
+        return anchored.stateCount;
+    }
+
+    private static final class Dfa {
+        final int classCount;
+        final int stateCount;
+        // table[state * classCount + charClass] is the next state
+        final int[] table;
+        // Matches when the input ends in this state
+        final boolean[] accepting;
+        // Matches whatever input follows
+        final boolean[] matching;
+        final int start;
+        // -1 when no state rejects everything
+        final int dead;
+
+        Dfa(int classCount, int[] table,
+            boolean[] accepting, boolean[] matching,
+            int start, int dead) {
+            this.classCount = classCount;
+            this.stateCount = accepting.length;
+            this.table = table;
+            this.accepting = accepting;
+            this.matching = matching;
+            this.start = start;
+            this.dead = dead;
+        }
+
+        // Subset construction, returns null above maxStates
+        static Dfa build(NfaClosure closure, AlphabetPartition alphabet,
+                         boolean unanchored, int maxStates) {
+            int classCount = alphabet.classCount();
+            Map<NfaClosure.StateKey, Integer> ids = new HashMap<>();
+            List<int[]> sets = new ArrayList<>();
+            Deque<Integer> pending = new ArrayDeque<>();
+
+            int[] start = closure.start();
+            ids.put(new NfaClosure.StateKey(start), 0);
+            sets.add(start);
+            pending.add(0);
+
+            int[] table = new int[16 * classCount];
+            while (!pending.isEmpty()) {
+                int state = pending.poll();
+                int[] from = sets.get(state);
+
+                for (int c = 0; c < classCount; c++) {
+                    int[] to = closure.step(from, alphabet.representative(c), unanchored);
+                    NfaClosure.StateKey key = new NfaClosure.StateKey(to);
+
+                    Integer next = ids.get(key);
+                    if (next == null) {
+                        if (sets.size() == maxStates) return null;
+                        next = sets.size();
+                        ids.put(key, next);
+                        sets.add(to);
+                        pending.add(next);
+                    }
+
+                    if (table.length <= state * classCount + c) {
+                        table = Arrays.copyOf(table, 2 * table.length);
+                    }
+                    table[state * classCount + c] = next;
+                }
+            }
+
+            int n = sets.size();
+            boolean[] accepting = new boolean[n];
+            boolean[] matching = new boolean[n];
+            int dead = -1;
+            for (int s = 0; s < n; s++) {
+                int[] set = sets.get(s);
+                accepting[s] = closure.acceptsAtEnd(set, false);
+                matching[s] = closure.isMatch(set);
+                if (set.length == 0) dead = s;
+            }
+
+            return new Dfa(classCount, Arrays.copyOf(table, n * classCount),
+                    accepting, matching, 0, dead);
+        }
+
+        // Moore's partition refinement: states stay in one block while
+        // they agree on acceptance and on the blocks of their successors
+        Dfa minimised() {
+            int[] block = new int[stateCount];
+            for (int s = 0; s < stateCount; s++) {
+                block[s] = (accepting[s] ? 1 : 0) | (matching[s] ? 2 : 0);
+            }
+            int blockCount = -1;
+
+            while (true) {
+                Map<NfaClosure.StateKey, Integer> blocks = new HashMap<>();
+                int[] next = new int[stateCount];
+
+                for (int s = 0; s < stateCount; s++) {
+                    int[] signature = new int[classCount + 1];
+                    signature[0] = block[s];
+                    for (int c = 0; c < classCount; c++) {
+                        signature[c + 1] = block[table[s * classCount + c]];
+                    }
+
+                    NfaClosure.StateKey key = new NfaClosure.StateKey(signature);
+                    Integer id = blocks.get(key);
+                    if (id == null) {
+                        id = blocks.size();
+                        blocks.put(key, id);
+                    }
+                    next[s] = id;
+                }
+
+                block = next;
+                if (blocks.size() == blockCount) break;
+                blockCount = blocks.size();
+            }
+
+            int[] minTable = new int[blockCount * classCount];
+            boolean[] minAccepting = new boolean[blockCount];
+            boolean[] minMatching = new boolean[blockCount];
+            for (int s = 0; s < stateCount; s++) {
+                int b = block[s];
+                minAccepting[b] = accepting[s];
+                minMatching[b] = matching[s];
+                for (int c = 0; c < classCount; c++) {
+                    minTable[b * classCount + c] = block[table[s * classCount + c]];
+                }
+            }
+
+            return new Dfa(classCount, minTable, minAccepting, minMatching,
+                    block[start], (dead >= 0) ? block[dead] : -1);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Engines chosen for a pattern and why they were chosen.
+ * engine() answers matches() and rejects non matching input,
+ * findEngine() reports where a match is. Memoisation policy and scheme
+ * are set only when the backtracking matcher is used.
+ */
+public final class EnginePlan {
+    private final MatchEngine engine;
+    private final MatchEngine findEngine;
+    private final MemoisationPolicy policy;
+    private final MemoisationEncodingScheme scheme;
+    private final String reason;
+    private final PatternFeatures features;
+
+    EnginePlan(MatchEngine engine,
+               MatchEngine findEngine,
+               MemoisationPolicy policy,
+               MemoisationEncodingScheme scheme,
+               String reason,
+               PatternFeatures features) {
+        this.engine = engine;
+        this.findEngine = findEngine;
+        this.policy = policy;
+        this.scheme = scheme;
+        this.reason = reason;
+        this.features = features;
+    }
+
+    public MatchEngine engine() {
+        return engine;
+    }
+
+    public MatchEngine findEngine() {
+        return findEngine;
+    }
+
+    /** Null unless the backtracking matcher is used. */
+    public MemoisationPolicy policy() {
+        return policy;
+    }
+
+    /** Null unless the backtracking matcher is used. */
+    public MemoisationEncodingScheme scheme() {
+        return scheme;
+    }
+
+    public String reason() {
+        return reason;
+    }
+
+    public PatternFeatures features() {
+        return features;
+    }
+
+    @Override
+    public String toString() {
+        String memo = (policy != null)
+                ? " (" + policy + ", " + scheme + ")"
+                : "";
+        return engine + "/" + findEngine + memo + ": " + reason;
+    }
+}
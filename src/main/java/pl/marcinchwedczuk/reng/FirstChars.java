@@ -0,0 +1,168 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Chars a match of a pattern can start with, e.g. [0-9+-] for
+ * [-+]?[0-9]+. Positions holding any other char are skipped without
+ * entering the matcher. A pattern that can match the empty string
+ * can start anywhere, one that begins with ^ in every branch only
+ * at the beginning of the input.
+ */
+final class FirstChars {
+    private final CharClass chars;
+    // Can match the empty string, so every position is a candidate
+    private final boolean nullable;
+    // Every match starts at position 0
+    private final boolean anchored;
+
+    private FirstChars(CharClass chars, boolean nullable, boolean anchored) {
+        this.chars = chars;
+        this.nullable = nullable;
+        this.anchored = anchored;
+    }
+
+    static FirstChars of(RAst regex) {
+        return new Analysis().visit(regex);
+    }
+
+    CharClass chars() {
+        return chars;
+    }
+
+    boolean isNullable() {
+        return nullable;
+    }
+
+    boolean isAnchored() {
+        return anchored;
+    }
+
+    /** Returns the first position at or after from where a match
+     * can start, or -1 when there is none.
+     */
+    int nextCandidate(String s, int from) {
+        if (anchored) {
+            return (from == 0) ? 0 : -1;
+        }
+        if (nullable) {
+            return (from <= s.length()) ? from : -1;
+        }
+
+        for (int pos = from; pos < s.length(); pos++) {
+            if (chars.contains(s.charAt(pos))) return pos;
+        }
+        return -1;
+    }
+
+    private static final class Analysis {
+        // Nodes shared by backreferences are analysed once
+        private final Map<RAst, FirstChars> results = new IdentityHashMap<>();
+
+        FirstChars visit(RAst ast) {
+            FirstChars result = results.get(ast);
+            if (result == null) {
+                result = analyse(ast);
+                results.put(ast, result);
+            }
+            return result;
+        }
+
+        private FirstChars analyse(RAst ast) {
+            switch (ast.type) {
+                case GROUP:
+                    return new FirstChars(ast.chars, false, false);
+
+                case NEGATED_GROUP:
+                    return new FirstChars(ast.chars.complement(), false, false);
+
+                case AT_BEGINNING:
+                    return new FirstChars(CharClass.EMPTY, true, true);
+
+                // A negative lookahead only runs what follows it
+                // after its branches failed, so it is zero width
+                case AT_END:
+                case NEGLOOKAHEAD:
+                    return new FirstChars(CharClass.EMPTY, true, false);
+
+                // Branches run with the continuation after them and
+                // consume input, see BacktrackingMatcher
+                case POSLOOKAHEAD:
+                    return lookahead(ast);
+
+                case CONCAT:
+                    return concat(ast);
+
+                case ALTERNATIVE:
+                    return alternative(ast);
+
+                case REPEAT:
+                    return repeat(ast);
+
+                default:
+                    throw new AssertionError("Unknown enum value: " + ast.type);
+            }
+        }
+
+        private FirstChars concat(RAst ast) {
+            CharClass.Builder chars = CharClass.builder();
+            boolean nullable = true;
+            // A ^ anywhere in the concatenation can only match when
+            // everything before it matched the empty string at 0
+            boolean anchored = false;
+
+            for (RAst e : ast.exprs) {
+                FirstChars first = visit(e);
+                anchored |= first.anchored;
+                if (nullable) {
+                    chars.addAll(first.chars);
+                    nullable = first.nullable;
+                }
+            }
+            return new FirstChars(chars.build(), nullable, anchored);
+        }
+
+        private FirstChars alternative(RAst ast) {
+            CharClass.Builder chars = CharClass.builder();
+            boolean nullable = false;
+            boolean anchored = true;
+
+            for (RAst e : ast.exprs) {
+                FirstChars first = visit(e);
+                chars.addAll(first.chars);
+                nullable |= first.nullable;
+                anchored &= first.anchored;
+            }
+            return new FirstChars(chars.build(), nullable, anchored);
+        }
+
+        // Every branch matches from the same position, so a match
+        // starts with a first char of each of them
+        private FirstChars lookahead(RAst ast) {
+            CharClass.Builder chars = CharClass.builder();
+            boolean nullable = false;
+            boolean anchored = false;
+
+            for (RAst e : ast.exprs) {
+                FirstChars first = visit(e);
+                chars.addAll(first.chars);
+                nullable |= first.nullable;
+                anchored |= first.anchored;
+            }
+            return new FirstChars(chars.build(), nullable, anchored);
+        }
+
+        private FirstChars repeat(RAst ast) {
+            if (ast.repeatMax == 0) {
+                return new FirstChars(CharClass.EMPTY, true, false);
+            }
+
+            FirstChars body = visit(ast.headExpr());
+            boolean mandatory = ast.repeatMin > 0;
+            return new FirstChars(body.chars,
+                    !mandatory || body.nullable,
+                    mandatory && body.anchored);
+        }
+    }
+}
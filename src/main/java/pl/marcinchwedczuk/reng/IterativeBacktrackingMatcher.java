@@ -0,0 +1,316 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Backtracking matcher that keeps its choice points on an explicit
+ * stack of primitive arrays instead of the JVM stack.
+ * It runs an NfaProgram depth first, trying the preferred branch of
+ * every SPLIT first, so it finds the same match as BacktrackingMatcher.
+ * Input length is limited by the heap, not by -Xss.
+ * Memoisation works on (instruction, position) pairs: a memo site seen
+ * again at the same position was already explored without a match.
+ * Inside loops whose body can match the empty string the instruction
+ * is paired with the loops entered at that position, an empty
+ * iteration ends the loop, so it changes where the thread continues.
+ * Lookaheads have no NFA equivalent and are not supported.
+ */
+public final class IterativeBacktrackingMatcher {
+    private final NfaProgram program;
+    private final MemoisationPolicy policy;
+    private final MemoisationEncodingScheme scheme;
+    // Indexed by pc
+    private final boolean[] memoSites;
+    private final int memoSiteCount;
+    private final StartPositions starts;
+
+    private IterativeBacktrackingMatcher(NfaProgram program,
+                                         StartPositions starts,
+                                         MemoisationPolicy policy,
+                                         MemoisationEncodingScheme scheme) {
+        this.program = program;
+        this.starts = starts;
+        this.policy = policy;
+        this.scheme = scheme;
+        this.memoSites = markMemoSites(program, policy);
+
+        int count = 0;
+        for (boolean site : memoSites) {
+            if (site) count++;
+        }
+        this.memoSiteCount = count;
+    }
+
+    /** Throws IllegalArgumentException for patterns with lookaheads,
+     * see NfaProgram.supports(RAst).
+     */
+    public static IterativeBacktrackingMatcher compile(RAst regex,
+                                                       MemoisationPolicy policy,
+                                                       MemoisationEncodingScheme scheme) {
+        return new IterativeBacktrackingMatcher(
+                NfaProgram.compile(regex), StartPositions.of(regex), policy, scheme);
+    }
+
+    public MemoisationPolicy policy() {
+        return policy;
+    }
+
+    public MemoisationEncodingScheme scheme() {
+        return scheme;
+    }
+
+    public int memoSiteCount() {
+        return memoSiteCount;
+    }
+
+    /** Finds the leftmost match in s. */
+    public Match find(String s) {
+        try (MemoTable memo = newMemoTable(s.length())) {
+            Run run = new Run(s, memo, false);
+            // Memo entries do not depend on the start position,
+            // so they are shared by all attempts
+            for (int start = starts.next(s, 0);
+                     start >= 0;
+                     start = starts.next(s, start + 1)) {
+                if (run.matchFrom(start)) {
+                    return new Match(s, true, start, run.matchEnd);
+                }
+            }
+            return new Match(s, false, -1, -1);
+        }
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        try (MemoTable memo = newMemoTable(s.length())) {
+            return new Run(s, memo, true).matchFrom(0);
+        }
+    }
+
+    private MemoTable newMemoTable(int inputLength) {
+        return newMemoTable(scheme, memoSiteCount,
+                program.size() << program.loopDepth, inputLength);
+    }
+
+    // Returns null when nothing needs to be memoised, states are
+    // the pcs with the entered loops in their lowest bits
+    static MemoTable newMemoTable(MemoisationEncodingScheme scheme,
+                                  int memoSiteCount,
+                                  int stateCount,
+                                  int inputLength) {
+        if (memoSiteCount == 0) {
+            return null;
+        }
+
+        switch (scheme) {
+            case BIT_MAP:
+                return BacktrackingMatcher.newBitMap(stateCount, inputLength);
+            case HASH_TABLE:
+                return new LongHashMemoTable();
+            case RLE:
+                return new RleMemoTable(stateCount);
+            default:
+                throw new AssertionError("Unknown enum value: " + scheme);
+        }
+    }
+
+    // Indexed by pc, also used by CodegenMatcher
+    static boolean[] markMemoSites(NfaProgram program, MemoisationPolicy policy) {
+        boolean[] sites = new boolean[program.size()];
+
+        switch (policy) {
+            case NONE:
+                break;
+
+            case ALL:
+                Arrays.fill(sites, true);
+                break;
+
+            case IN_DEGREE_GREATER_THAN_1: {
+                int[] inDegree = inDegree(program);
+                for (int pc = 0; pc < sites.length; pc++) {
+                    sites[pc] = inDegree[pc] > 1;
+                }
+                break;
+            }
+
+            case ANCESTOR_NODES:
+                // Loop entries, the targets of back-edges
+                for (int pc = 0; pc < sites.length; pc++) {
+                    if (program.op[pc] == NfaProgram.JMP && program.x[pc] < pc) {
+                        sites[program.x[pc]] = true;
+                    }
+                }
+                break;
+
+            default:
+                throw new AssertionError("Unknown enum value: " + policy);
+        }
+
+        return sites;
+    }
+
+    private static int[] inDegree(NfaProgram program) {
+        int[] inDegree = new int[program.size()];
+        // Entry edge
+        inDegree[0]++;
+
+        for (int pc = 0; pc < program.size(); pc++) {
+            switch (program.op[pc]) {
+                case NfaProgram.SPLIT:
+                    inDegree[program.x[pc]]++;
+                    inDegree[program.y[pc]]++;
+                    break;
+
+                case NfaProgram.JMP:
+                    inDegree[program.x[pc]]++;
+                    if (program.loop[pc] >= 0) inDegree[program.y[pc]]++;
+                    break;
+
+                case NfaProgram.MATCH:
+                    break;
+
+                default:
+                    inDegree[pc + 1]++;
+                    break;
+            }
+        }
+        return inDegree;
+    }
+
+    // State of a single find or matches call
+    private final class Run {
+        private final String input;
+        private final MemoTable memo;
+        private final boolean wholeInput;
+        private final BacktrackStack stack = new BacktrackStack();
+        int matchEnd = -1;
+
+        Run(String input, MemoTable memo, boolean wholeInput) {
+            this.input = input;
+            this.memo = memo;
+            this.wholeInput = wholeInput;
+        }
+
+        boolean matchFrom(int start) {
+            NfaProgram prog = program;
+            int length = input.length();
+            int depth = prog.loopDepth;
+
+            stack.clear();
+            stack.push(0, start);
+
+            while (!stack.isEmpty()) {
+                stack.pop();
+                int state = stack.poppedState();
+                int pos = stack.poppedPos();
+
+                // Loops entered at pos, see NfaProgram.loopLevel
+                int pc = state >>> depth;
+                int entered = state - (pc << depth);
+
+                thread:
+                while (true) {
+                    if (memo != null && memoSites[pc]) {
+                        state = (pc << depth) | entered;
+                        if (memo.testAndSetFailed(state, pos)) break;
+                    }
+
+                    int loop = prog.loop[pc];
+                    int bit = (loop >= 0) ? 1 << prog.loopLevel[loop] : 0;
+
+                    switch (prog.op[pc]) {
+                        case NfaProgram.CHAR:
+                        case NfaProgram.NOT_CHAR:
+                            if (pos == length || !prog.accepts(pc, input.charAt(pos)))
+                                break thread;
+                            pc++;
+                            pos++;
+                            entered = 0;
+                            break;
+
+                        case NfaProgram.SPLIT:
+                            stack.push((prog.y[pc] << depth) | (entered & ~bit), pos);
+                            pc = prog.x[pc];
+                            entered |= bit;
+                            break;
+
+                        case NfaProgram.JMP:
+                            if ((entered & bit) != 0) {
+                                // Empty iteration, continue after the loop
+                                pc = prog.y[pc];
+                                entered &= ~bit;
+                            } else {
+                                pc = prog.x[pc];
+                            }
+                            break;
+
+                        case NfaProgram.AT_BEGINNING:
+                            if (pos != 0) break thread;
+                            pc++;
+                            break;
+
+                        case NfaProgram.AT_END:
+                            if (pos != length) break thread;
+                            pc++;
+                            break;
+
+                        case NfaProgram.MATCH:
+                            if (wholeInput && pos != length) break thread;
+                            matchEnd = pos;
+                            return true;
+
+                        default:
+                            throw new AssertionError("Unknown opcode: " + prog.op[pc]);
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    // Growable stack of choice points (state, position) kept in
+    // parallel int arrays, a state is a pc with the loops entered at
+    // the position in its lowest NfaProgram.loopDepth bits.
+    private static final class BacktrackStack {
+        private int[] states = new int[64];
+        private int[] positions = new int[64];
+        private int size = 0;
+
+        private int poppedState;
+        private int poppedPos;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void push(int state, int pos) {
+            if (size == states.length) {
+                states = Arrays.copyOf(states, 2 * size);
+                positions = Arrays.copyOf(positions, 2 * size);
+            }
+            states[size] = state;
+            positions[size] = pos;
+            size++;
+        }
+
+        void pop() {
+            size--;
+            poppedState = states[size];
+            poppedPos = positions[size];
+        }
+
+        int poppedState() {
+            return poppedState;
+        }
+
+        int poppedPos() {
+            return poppedPos;
+        }
+    }
+}
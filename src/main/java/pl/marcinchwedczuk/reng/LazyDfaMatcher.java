@@ -0,0 +1,225 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * DFA built lazily from an NfaProgram while matching.
+ * A DFA state is a set of NFA instructions, a transition is computed
+ * the first time it is taken and then costs one table lookup per char.
+ * States are cached up to a memory cap, when the cap is reached the
+ * cache is flushed and rebuilt on demand. A matcher has one cache for
+ * matches() and one for containsMatch(), a call that finds its cache
+ * in use by another thread builds the states it needs in a cache of
+ * its own, which is dropped when the call returns.
+ * Only answers whether there is a match, not where it is.
+ */
+public final class LazyDfaMatcher {
+    public static final long DEFAULT_CACHE_BYTES = 2L << 20;
+
+    // Transition not computed yet
+    private static final int UNKNOWN = -1;
+    // State with no NFA instructions, it never matches
+    private static final int DEAD = 0;
+    // Rough per state cost of the map entry, arrays and bookkeeping
+    private static final int STATE_OVERHEAD_BYTES = 96;
+
+    private final NfaProgram program;
+    private final AlphabetPartition alphabet;
+    private final long cacheBytes;
+    private final LongAdder cacheFlushes = new LongAdder();
+
+    private final Cache anchoredCache;
+    private final Cache unanchoredCache;
+
+    private LazyDfaMatcher(NfaProgram program, long cacheBytes) {
+        this.program = program;
+        this.alphabet = AlphabetPartition.of(program);
+        this.cacheBytes = cacheBytes;
+        this.anchoredCache = new Cache(false);
+        this.unanchoredCache = new Cache(true);
+    }
+
+    /** Throws IllegalArgumentException for patterns with lookaheads,
+     * see NfaProgram.supports(RAst).
+     */
+    public static LazyDfaMatcher compile(RAst regex) {
+        return compile(regex, DEFAULT_CACHE_BYTES);
+    }
+
+    public static LazyDfaMatcher compile(RAst regex, long cacheBytes) {
+        if (cacheBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be positive: " + cacheBytes);
+        return new LazyDfaMatcher(NfaProgram.compile(regex), cacheBytes);
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        if (!anchoredCache.lock.tryLock()) {
+            return matches(s, new Cache(false));
+        }
+        try {
+            return matches(s, anchoredCache);
+        } finally {
+            anchoredCache.lock.unlock();
+        }
+    }
+
+    private boolean matches(String s, Cache cache) {
+        int state = cache.startState();
+
+        for (int i = 0; i < s.length(); i++) {
+            state = cache.next(state, alphabet.classOf(s.charAt(i)));
+            if (state == DEAD) return false;
+        }
+        return cache.acceptsAtEnd(state, s.isEmpty());
+    }
+
+    /** Checks if any substring of s matches the pattern,
+     * same as find(s).hasMatch but stops at the first match found.
+     */
+    public boolean containsMatch(String s) {
+        if (!unanchoredCache.lock.tryLock()) {
+            return containsMatch(s, new Cache(true));
+        }
+        try {
+            return containsMatch(s, unanchoredCache);
+        } finally {
+            unanchoredCache.lock.unlock();
+        }
+    }
+
+    private boolean containsMatch(String s, Cache cache) {
+        int state = cache.startState();
+
+        for (int i = 0; i < s.length(); i++) {
+            if (cache.isMatch(state)) return true;
+            state = cache.next(state, alphabet.classOf(s.charAt(i)));
+        }
+        return cache.acceptsAtEnd(state, s.isEmpty());
+    }
+
+    /** Number of times any state cache reached the cap. */
+    public long cacheFlushes() {
+        return cacheFlushes.sum();
+    }
+
+    // States and transitions, used by one call at a time
+    private final class Cache {
+        // Held by the call using a shared cache
+        final ReentrantLock lock = new ReentrantLock();
+        // Unanchored search restarts the pattern at every position
+        private final boolean unanchored;
+        private final int classCount = alphabet.classCount();
+
+        private final Map<NfaClosure.StateKey, Integer> ids = new HashMap<>();
+        private int[][] sets = new int[16][];
+        private boolean[] matching = new boolean[16];
+        // 0 - not computed, 1 - rejects, 2 - accepts
+        private byte[] atEnd = new byte[16];
+        private int[] transitions = new int[16 * classCount];
+        private int stateCount = 0;
+        private long usedBytes = 0;
+        private int startState;
+
+        private final NfaClosure closure = new NfaClosure(program);
+
+        Cache(boolean unanchored) {
+            this.unanchored = unanchored;
+            reset();
+        }
+
+        int startState() {
+            return startState;
+        }
+
+        boolean isMatch(int state) {
+            return matching[state];
+        }
+
+        int next(int state, int charClass) {
+            int next = transitions[state * classCount + charClass];
+            if (next != UNKNOWN) return next;
+
+            int[] from = sets[state];
+            int[] to = closure.step(from,
+                    alphabet.representative(charClass), unanchored);
+
+            // Only a state that is not cached yet can need a flush
+            Integer cached = ids.get(new NfaClosure.StateKey(to));
+            if (cached != null) {
+                next = cached;
+            } else {
+                if (!fits(to)) {
+                    flush();
+                    state = stateOf(from);
+                }
+                next = stateOf(to);
+            }
+            transitions[state * classCount + charClass] = next;
+            return next;
+        }
+
+        boolean acceptsAtEnd(int state, boolean atBeginning) {
+            // The start state on empty input is also at the beginning,
+            // that only matters for patterns like $^ and is not cached
+            if (atBeginning) return closure.acceptsAtEnd(sets[state], true);
+
+            if (atEnd[state] == 0) {
+                atEnd[state] = closure.acceptsAtEnd(sets[state], false) ? (byte) 2 : (byte) 1;
+            }
+            return atEnd[state] == 2;
+        }
+
+        private void reset() {
+            ids.clear();
+            stateCount = 0;
+            usedBytes = 0;
+
+            stateOf(new int[0]);
+            startState = stateOf(closure.start());
+        }
+
+        private void flush() {
+            cacheFlushes.increment();
+            reset();
+        }
+
+        private boolean fits(int[] set) {
+            // Dead and start states always stay
+            return stateCount <= 2 || usedBytes + stateBytes(set) <= cacheBytes;
+        }
+
+        private long stateBytes(int[] set) {
+            return STATE_OVERHEAD_BYTES
+                    + (long) Integer.BYTES * (set.length + classCount);
+        }
+
+        private int stateOf(int[] set) {
+            NfaClosure.StateKey key = new NfaClosure.StateKey(set);
+            Integer id = ids.get(key);
+            if (id != null) return id;
+
+            if (stateCount == sets.length) {
+                int capacity = 2 * stateCount;
+                sets = Arrays.copyOf(sets, capacity);
+                matching = Arrays.copyOf(matching, capacity);
+                atEnd = Arrays.copyOf(atEnd, capacity);
+                transitions = Arrays.copyOf(transitions, capacity * classCount);
+            }
+
+            int state = stateCount++;
+            sets[state] = set;
+            matching[state] = closure.isMatch(set);
+            atEnd[state] = 0;
+            Arrays.fill(transitions, state * classCount,
+                    (state + 1) * classCount, UNKNOWN);
+            usedBytes += stateBytes(set);
+            ids.put(key, state);
+            return state;
+        }
+    }
+}
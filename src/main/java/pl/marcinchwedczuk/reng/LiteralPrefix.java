@@ -0,0 +1,162 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The literal every match of a pattern starts with, e.g. gmail.com
+ * for gmail\.com|gmail\.com\.pl, and a Boyer-Moore-Horspool search for
+ * it. Backtracking matchers only try the start positions it returns,
+ * on most input the search skips large parts of the string without
+ * entering the matcher at all.
+ * Patterns without such a literal get an empty prefix, every position
+ * is a candidate then.
+ */
+final class LiteralPrefix {
+    // Longer prefixes barely speed up the search
+    static final int MAX_LENGTH = 64;
+
+    private static final LiteralPrefix NONE = new LiteralPrefix("");
+
+    private final String literal;
+    // Shift after a mismatch, indexed by the low byte of the char
+    // under the last char of the literal. Chars sharing the low byte
+    // get the smallest of their shifts, so no match is skipped.
+    private final int[] shift;
+
+    private LiteralPrefix(String literal) {
+        this.literal = literal;
+
+        int m = literal.length();
+        if (m < 2) {
+            this.shift = null;
+            return;
+        }
+
+        this.shift = new int[256];
+        Arrays.fill(shift, m);
+        for (int i = 0; i < m - 1; i++) {
+            shift[literal.charAt(i) & 0xFF] = m - 1 - i;
+        }
+    }
+
+    static LiteralPrefix of(RAst regex) {
+        StringBuilder prefix = new StringBuilder();
+        appendPrefix(regex, prefix);
+        if (prefix.length() == 0) return NONE;
+
+        int length = Math.min(prefix.length(), MAX_LENGTH);
+        return new LiteralPrefix(prefix.substring(0, length));
+    }
+
+    String literal() {
+        return literal;
+    }
+
+    boolean isEmpty() {
+        return literal.isEmpty();
+    }
+
+    /** Returns the first position at or after from where a match
+     * can start, or -1 when there is none.
+     */
+    int nextCandidate(String s, int from) {
+        switch (literal.length()) {
+            case 0: return (from <= s.length()) ? from : -1;
+            case 1: return s.indexOf(literal.charAt(0), from);
+            default: return horspool(s, from);
+        }
+    }
+
+    private int horspool(String s, int from) {
+        int last = literal.length() - 1;
+        char lastChar = literal.charAt(last);
+
+        for (int i = from, end = s.length() - last; i < end; ) {
+            char c = s.charAt(i + last);
+            if (c == lastChar && s.regionMatches(i, literal, 0, last)) {
+                return i;
+            }
+            i += shift[c & 0xFF];
+        }
+        return -1;
+    }
+
+    // Appends the literal every match of ast starts with, returns
+    // true when ast matches exactly that literal so what follows it
+    // in a concatenation extends the prefix
+    private static boolean appendPrefix(RAst ast, StringBuilder prefix) {
+        if (prefix.length() >= MAX_LENGTH) return false;
+
+        switch (ast.type) {
+            case GROUP:
+                if (ast.chars.size() != 1) return false;
+                prefix.append(ast.chars.first());
+                return true;
+
+            // Lookahead branches run with the continuation after them
+            // and consume input, see BacktrackingMatcher
+            case NEGATED_GROUP:
+            case POSLOOKAHEAD:
+            case NEGLOOKAHEAD:
+                return false;
+
+            // Consume nothing, so the match still starts with
+            // whatever follows them
+            case AT_BEGINNING:
+            case AT_END:
+                return true;
+
+            case CONCAT:
+                for (RAst e : ast.exprs) {
+                    if (!appendPrefix(e, prefix)) return false;
+                }
+                return true;
+
+            case ALTERNATIVE:
+                return appendCommonPrefix(ast.exprs, prefix);
+
+            case REPEAT:
+                return appendRepeatPrefix(ast, prefix);
+
+            default:
+                throw new AssertionError("Unknown enum value: " + ast.type);
+        }
+    }
+
+    private static boolean appendCommonPrefix(List<RAst> alternatives, StringBuilder prefix) {
+        List<String> prefixes = new ArrayList<>(alternatives.size());
+        boolean allExact = true;
+        for (RAst e : alternatives) {
+            StringBuilder p = new StringBuilder(prefix);
+            allExact &= appendPrefix(e, p);
+            prefixes.add(p.substring(prefix.length()));
+        }
+
+        String common = prefixes.get(0);
+        for (String p : prefixes) {
+            int n = 0;
+            while (n < common.length() && n < p.length()
+                    && common.charAt(n) == p.charAt(n)) {
+                n++;
+            }
+            if (n < common.length() || n < p.length()) allExact = false;
+            common = common.substring(0, n);
+        }
+
+        prefix.append(common);
+        return allExact;
+    }
+
+    private static boolean appendRepeatPrefix(RAst repeat, StringBuilder prefix) {
+        // Only the first min iterations are certain
+        for (long i = 0; i < repeat.repeatMin; i++) {
+            int before = prefix.length();
+            if (!appendPrefix(repeat.headExpr(), prefix)) return false;
+            if (prefix.length() == before) break;
+            if (prefix.length() >= MAX_LENGTH) return false;
+        }
+        return repeat.repeatMin == repeat.repeatMax;
+    }
+}
@@ -0,0 +1,192 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Memo table for the HASH_TABLE scheme.
+ * Keys are (node id, position) pairs packed into a single long,
+ * stored in a primitive array with open addressing (linear probing).
+ * Unlike Hashtable<String, Boolean> a probe allocates nothing,
+ * boxes nothing and takes no lock.
+ * The table can be given a memory budget, once it is reached the older
+ * half of the entries is evicted instead of growing the table.
+ * Losing an entry only costs extra backtracking.
+ */
+class LongHashMemoTable implements MemoTable {
+    // Node ids and positions are never negative, so no real key is -1
+    private static final long EMPTY = -1L;
+    private static final int INITIAL_CAPACITY = 64;
+    // long key + boolean value + int stamp
+    private static final int BYTES_PER_SLOT = Long.BYTES + 1 + Integer.BYTES;
+
+    private long[] keys;
+    private boolean[] values;
+    // Insertion order of each entry, used to pick entries to evict
+    private int[] stamps;
+    private int clock = 0;
+    private int size;
+    // Resize when size reaches this value, keeps load factor <= 0.5
+    private int threshold;
+    // Table never grows above this many slots
+    private final int maxCapacity;
+    private long evictions = 0;
+
+    public LongHashMemoTable() {
+        this(Long.MAX_VALUE);
+    }
+
+    public LongHashMemoTable(long budgetBytes) {
+        this.maxCapacity = maxCapacity(budgetBytes);
+        allocate(Math.min(INITIAL_CAPACITY, maxCapacity));
+    }
+
+    public static long key(int node, int stringPos) {
+        return ((long) node << 32) | (stringPos & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public boolean isSet(int node, int stringPos) {
+        return lookup(node, stringPos) != UNSET;
+    }
+
+    @Override
+    public boolean isMatch(int node, int stringPos) {
+        return lookup(node, stringPos) == MATCHED;
+    }
+
+    @Override
+    public void setValue(int node, int stringPos, boolean match) {
+        insert(node, stringPos, match, false);
+    }
+
+    @Override
+    public boolean testAndSetFailed(int node, int stringPos) {
+        return insert(node, stringPos, false, false);
+    }
+
+    // Returns UNSET, FAILED or MATCHED using a single probe sequence
+    @Override
+    public byte lookup(int node, int stringPos) {
+        long key = key(node, stringPos);
+        int mask = keys.length - 1;
+
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = keys[slot];
+            if (k == key) return values[slot] ? MATCHED : FAILED;
+            if (k == EMPTY) return UNSET;
+        }
+    }
+
+    // Inserts or overwrites the value using a single probe sequence
+    public void put(int node, int stringPos, boolean match) {
+        insert(node, stringPos, match, true);
+    }
+
+    // Returns true when the key was present before
+    private boolean insert(int node, int stringPos, boolean match, boolean overwrite) {
+        long key = key(node, stringPos);
+        int mask = keys.length - 1;
+
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            long k = keys[slot];
+            if (k == key) {
+                if (overwrite) values[slot] = match;
+                return true;
+            }
+            if (k == EMPTY) {
+                keys[slot] = key;
+                values[slot] = match;
+                stamps[slot] = clock++;
+                if (++size >= threshold) {
+                    if (keys.length < maxCapacity) rebuild(2 * keys.length, Integer.MIN_VALUE);
+                    else evict();
+                }
+                return false;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long evictions() {
+        return evictions;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    // Drops the older half of the entries. Backtracking probes
+    // mostly the positions it has just left, so recent entries
+    // are the ones worth keeping.
+    private void evict() {
+        int[] order = new int[size];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != EMPTY) order[n++] = stamps[slot];
+        }
+        Arrays.sort(order);
+
+        int cutoff = order[size / 2];
+        int before = size;
+        rebuild(keys.length, cutoff);
+        evictions += before - size;
+
+        // Restart the clock so stamps never overflow
+        for (int slot = 0; slot < keys.length; slot++) {
+            stamps[slot] -= cutoff;
+        }
+        clock -= cutoff;
+    }
+
+    // Reinserts entries with stamp >= minStamp into a new table
+    private void rebuild(int capacity, int minStamp) {
+        long[] oldKeys = keys;
+        boolean[] oldValues = values;
+        int[] oldStamps = stamps;
+
+        allocate(capacity);
+        int mask = keys.length - 1;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY || oldStamps[i] < minStamp) continue;
+
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+            stamps[slot] = oldStamps[i];
+            size++;
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new boolean[capacity];
+        stamps = new int[capacity];
+        threshold = capacity / 2;
+        size = 0;
+    }
+
+    // Largest power of two number of slots that fits in the budget,
+    // but never less than a tiny table
+    private static int maxCapacity(long budgetBytes) {
+        long slots = Math.max(budgetBytes / BYTES_PER_SLOT, 8);
+        slots = Math.min(slots, 1 << 30);
+        return Integer.highestOneBit((int) slots);
+    }
+
+    private static int hash(long key) {
+        // Fibonacci hashing, spreads sequential positions over the table
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
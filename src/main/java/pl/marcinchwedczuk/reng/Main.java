@@ -23,11 +23,13 @@ public class Main {
 
         RAst regex = readRegex(con);
         if (regex == null) return;
+        PlannedPattern pattern = PlannedPattern.compile(regex);
+        con.printf("ENGINE %s%n", pattern.plan());
 
         String line;
         while ((line = con.readLine("INPUT? ")) != null) {
             final long startTime = System.currentTimeMillis();
-            Match m = BacktrackingMatcher.match(line, regex);
+            Match m = pattern.find(line);
             if (m.hasMatch) {
                 con.printf("MATCH %s at position %d%n", m.matched(), m.start);
             }
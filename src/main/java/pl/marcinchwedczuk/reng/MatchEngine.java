@@ -0,0 +1,26 @@
+package pl.marcinchwedczuk.reng;
+
+public enum MatchEngine {
+
+    /* single forward scan of an anchored one-pass pattern, see OnePassMatcher */
+    ONE_PASS,
+
+    /* minimised DFA built at compile time, see DfaMatcher */
+    FULL_DFA,
+
+    /* DFA built on demand with a bounded cache, see LazyDfaMatcher */
+    LAZY_DFA,
+
+    /* Glushkov automaton in a single long, see BitParallelMatcher */
+    BIT_PARALLEL,
+
+    /* NFA simulation with thread lists, see PikeVmMatcher */
+    PIKE_VM,
+
+    /* backtracking compiled to Java per pattern, only on request, see CodegenMatcher */
+    CODEGEN,
+
+    /* continuation based backtracking with memoisation */
+    BACKTRACKING
+
+}
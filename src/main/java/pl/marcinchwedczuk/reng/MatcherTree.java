@@ -0,0 +1,403 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A numbered pattern compiled into a tree of matcher nodes.
+ * Every node kind has its own final class holding what it needs to
+ * match: children resolved into an array, the memo-site flag and, for
+ * groups, their CharClass. Runs of single characters in a
+ * concatenation become one literal node. Matching calls the nodes
+ * directly, nothing reads RAst types, child lists or policy enums.
+ * Finds the same matches as BacktrackingMatcher, lookaheads included.
+ */
+final class MatcherTree {
+    private final Node root;
+    private final StartPositions starts;
+
+    private MatcherTree(Node root, StartPositions starts) {
+        this.root = root;
+        this.starts = starts;
+    }
+
+    /** memoSites is indexed by node id of the numbered regex. */
+    static MatcherTree compile(RAst regex, boolean[] memoSites) {
+        return new MatcherTree(
+                new Builder(regex, memoSites).build(regex),
+                StartPositions.of(regex));
+    }
+
+    /** Finds the leftmost match in s, memo may be null. */
+    Match find(String s, MemoTable memo) {
+        Run run = new Run(s, memo);
+
+        // Positions that cannot start a match are skipped
+        for (int start = starts.next(s, 0);
+                 start >= 0;
+                 start = starts.next(s, start + 1)) {
+            run.pos = start;
+            if (root.memoMatch(run, () -> {
+                run.matchEnd = run.pos;
+                return true;
+            })) {
+                return new Match(s, true, start, run.matchEnd);
+            }
+        }
+        return new Match(s, false, -1, -1);
+    }
+
+    /** Checks if the whole of s matches, memo may be null. */
+    boolean matches(String s, MemoTable memo) {
+        Run run = new Run(s, memo);
+        return root.memoMatch(run, () -> run.pos == s.length());
+    }
+
+    // State of a single match call
+    static final class Run {
+        final String input;
+        final int length;
+        final MemoTable memo;
+        int pos = 0;
+        int matchEnd = -1;
+
+        Run(String input, MemoTable memo) {
+            this.input = input;
+            this.length = input.length();
+            this.memo = memo;
+        }
+    }
+
+    abstract static class Node {
+        private final int id;
+        // Never true when memoisation is off
+        private final boolean memoSite;
+
+        Node(RAst ast, boolean[] memoSites) {
+            this(ast.getID(), memoSites[ast.getID()]);
+        }
+
+        Node(int id, boolean memoSite) {
+            this.id = id;
+            this.memoSite = memoSite;
+        }
+
+        // Matches this node followed by cont
+        abstract boolean match(Run run, Cont cont);
+
+        // Same as match(), but consults the memo table at memo sites.
+        // Only failures are recorded: a success ends the search, unless
+        // it happened inside a lookahead, and reusing it there would
+        // skip the continuation that sets the end of the match.
+        final boolean memoMatch(Run run, Cont cont) {
+            if (!memoSite || run.memo == null) {
+                return match(run, cont);
+            }
+
+            int pos = run.pos;
+            if (run.memo.lookup(id, pos) == MemoTable.FAILED) {
+                return false;
+            }
+
+            boolean matched = match(run, cont);
+            if (!matched) {
+                run.memo.setValue(id, pos, false);
+            }
+            return matched;
+        }
+    }
+
+    static final class AtBeginning extends Node {
+        AtBeginning(RAst ast, boolean[] memoSites) {
+            super(ast, memoSites);
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            return run.pos == 0 && cont.run();
+        }
+    }
+
+    static final class AtEnd extends Node {
+        AtEnd(RAst ast, boolean[] memoSites) {
+            super(ast, memoSites);
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            return run.pos == run.length && cont.run();
+        }
+    }
+
+    // GROUP and NEGATED_GROUP
+    static final class CharTest extends Node {
+        private final CharClass chars;
+        private final boolean negated;
+
+        CharTest(RAst ast, boolean[] memoSites) {
+            super(ast, memoSites);
+            this.chars = ast.chars;
+            this.negated = (ast.type == RAstType.NEGATED_GROUP);
+        }
+
+        private boolean accepts(char c) {
+            return chars.contains(c) != negated;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            int pos = run.pos;
+            if (pos == run.length || !accepts(run.input.charAt(pos))) {
+                return false;
+            }
+
+            run.pos = pos + 1;
+            try {
+                return cont.run();
+            } finally {
+                run.pos = pos;
+            }
+        }
+    }
+
+    // Run of single char groups in a concatenation, uses the id
+    // and memo table row of the first of them
+    static final class Literal extends Node {
+        private final String literal;
+
+        Literal(int id, boolean memoSite, String literal) {
+            super(id, memoSite);
+            this.literal = literal;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            int pos = run.pos;
+            if (!run.input.startsWith(literal, pos)) {
+                return false;
+            }
+
+            run.pos = pos + literal.length();
+            try {
+                return cont.run();
+            } finally {
+                run.pos = pos;
+            }
+        }
+    }
+
+    static final class Concat extends Node {
+        private final Node[] exprs;
+
+        Concat(RAst ast, boolean[] memoSites, Node[] exprs) {
+            super(ast, memoSites);
+            this.exprs = exprs;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            return matchFrom(0, run, cont);
+        }
+
+        private boolean matchFrom(int i, Run run, Cont cont) {
+            if (i == exprs.length) {
+                return cont.run();
+            }
+            if (i == exprs.length - 1) {
+                // Last expression needs no wrapping continuation
+                return exprs[i].memoMatch(run, cont);
+            }
+            return exprs[i].memoMatch(run, () -> matchFrom(i + 1, run, cont));
+        }
+    }
+
+    static final class Alternative extends Node {
+        private final Node[] exprs;
+
+        Alternative(RAst ast, boolean[] memoSites, Node[] exprs) {
+            super(ast, memoSites);
+            this.exprs = exprs;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            for (Node e : exprs) {
+                if (e.memoMatch(run, cont)) return true;
+            }
+            // We tried all alternatives but achieved no match.
+            return false;
+        }
+    }
+
+    static final class Repeat extends Node {
+        private final long min;
+        private final long max;
+        private final Node body;
+
+        Repeat(RAst ast, boolean[] memoSites, Node body) {
+            super(ast, memoSites);
+            this.body = body;
+            this.min = ast.repeatMin;
+            this.max = ast.repeatMax;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            return matchFrom(0, run, cont);
+        }
+
+        // See BacktrackingMatcher.repeatRec. After max iterations
+        // another one could only fail, so the body is not run again
+        // and r? calls its body with a single continuation.
+        private boolean matchFrom(long count, Run run, Cont cont) {
+            if (count == max) return cont.run();
+
+            // An iteration that consumed nothing ends the loop
+            // once the minimum is reached
+            int iterationStart = run.pos;
+            boolean matched = body.memoMatch(run, () ->
+                    (run.pos == iterationStart && count >= min)
+                            ? cont.run()
+                            : matchFrom(count + 1, run, cont));
+
+            if (!matched && count >= min) {
+                return cont.run();
+            }
+            return matched;
+        }
+    }
+
+    // Lookaheads pass cont to their branches, same as BacktrackingMatcher
+    static final class PosLookahead extends Node {
+        private final Node[] exprs;
+
+        PosLookahead(RAst ast, boolean[] memoSites, Node[] exprs) {
+            super(ast, memoSites);
+            this.exprs = exprs;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            for (Node e : exprs) {
+                if (!e.memoMatch(run, cont)) return false;
+            }
+            return true;
+        }
+    }
+
+    static final class NegLookahead extends Node {
+        private final Node[] exprs;
+
+        NegLookahead(RAst ast, boolean[] memoSites, Node[] exprs) {
+            super(ast, memoSites);
+            this.exprs = exprs;
+        }
+
+        @Override
+        boolean match(Run run, Cont cont) {
+            for (Node e : exprs) {
+                if (e.memoMatch(run, cont)) return false;
+            }
+            return cont.run();
+        }
+    }
+
+    // Nodes shared within the pattern (backreferences) are compiled once
+    private static final class Builder {
+        private final boolean[] memoSites;
+        private final Map<RAst, Node> nodes = new IdentityHashMap<>();
+        // Number of parents of every node, shared subtrees counted once
+        private final Map<RAst, Integer> parents = new IdentityHashMap<>();
+
+        Builder(RAst regex, boolean[] memoSites) {
+            this.memoSites = memoSites;
+            countParents(regex);
+        }
+
+        private void countParents(RAst ast) {
+            for (RAst e : ast.exprs) {
+                Integer count = parents.get(e);
+                parents.put(e, (count == null) ? 1 : count + 1);
+                if (count == null) countParents(e);
+            }
+        }
+
+        Node build(RAst ast) {
+            Node node = nodes.get(ast);
+            if (node == null) {
+                node = newNode(ast);
+                nodes.put(ast, node);
+            }
+            return node;
+        }
+
+        private Node newNode(RAst ast) {
+            switch (ast.type) {
+                case AT_BEGINNING:
+                    return new AtBeginning(ast, memoSites);
+                case AT_END:
+                    return new AtEnd(ast, memoSites);
+                case GROUP:
+                case NEGATED_GROUP:
+                    return new CharTest(ast, memoSites);
+                case CONCAT:
+                    return new Concat(ast, memoSites, fuseLiterals(ast));
+                case ALTERNATIVE:
+                    return new Alternative(ast, memoSites, children(ast));
+                case REPEAT:
+                    return new Repeat(ast, memoSites, build(ast.headExpr()));
+                case POSLOOKAHEAD:
+                    return new PosLookahead(ast, memoSites, children(ast));
+                case NEGLOOKAHEAD:
+                    return new NegLookahead(ast, memoSites, children(ast));
+                default:
+                    throw new AssertionError("Unknown enum value: " + ast.type);
+            }
+        }
+
+        // Children of a concatenation with runs of single chars
+        // replaced by literals
+        private Node[] fuseLiterals(RAst concat) {
+            List<Node> children = new ArrayList<>();
+            List<RAst> exprs = concat.exprs;
+
+            int i = 0;
+            while (i < exprs.size()) {
+                int j = i;
+                while (j < exprs.size() && isSingleChar(exprs.get(j))) j++;
+
+                if (j - i < 2) {
+                    children.add(build(exprs.get(i)));
+                    i++;
+                    continue;
+                }
+
+                StringBuilder literal = new StringBuilder();
+                for (int k = i; k < j; k++) {
+                    literal.append(exprs.get(k).chars.first());
+                }
+                // A shared first char would use its memo row for
+                // two different continuations
+                RAst first = exprs.get(i);
+                boolean memoSite = memoSites[first.getID()] && parents.get(first) == 1;
+                children.add(new Literal(first.getID(), memoSite, literal.toString()));
+                i = j;
+            }
+            return children.toArray(new Node[0]);
+        }
+
+        private static boolean isSingleChar(RAst ast) {
+            return ast.type == RAstType.GROUP && ast.chars.size() == 1;
+        }
+
+        private Node[] children(RAst ast) {
+            Node[] children = new Node[ast.exprs.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = build(ast.exprs.get(i));
+            }
+            return children;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package pl.marcinchwedczuk.reng;
+
+public enum MemoStorage {
+
+    /* java arrays on the heap */
+    HEAP,
+
+    /* direct ByteBuffers outside the heap, freed when a match ends */
+    OFF_HEAP,
+
+    /* memory-mapped scratch file, unmapped and deleted when a match ends.
+       Only the BIT_MAP grid is file backed, RLE rows use direct buffers. */
+    MAPPED_FILE
+
+}
@@ -0,0 +1,46 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Memo table addressed by (node id, input position).
+ * Each cell is either unset or holds the result of matching
+ * the node (followed by its continuation) at that position.
+ */
+interface MemoTable extends AutoCloseable {
+    byte UNSET = -1;
+    byte FAILED = 0;
+    byte MATCHED = 1;
+
+    boolean isSet(int node, int stringPos);
+
+    // Only meaningful when isSet(node, stringPos) returns true
+    boolean isMatch(int node, int stringPos);
+
+    // First write wins, later writes to the same cell are ignored
+    void setValue(int node, int stringPos, boolean match);
+
+    // Returns UNSET, FAILED or MATCHED, implementations
+    // override this to answer with a single probe
+    default byte lookup(int node, int stringPos) {
+        if (!isSet(node, stringPos)) return UNSET;
+        return isMatch(node, stringPos) ? MATCHED : FAILED;
+    }
+
+    // Sets the cell to FAILED unless it is set already and tells
+    // if it was, implementations override this to probe once
+    default boolean testAndSetFailed(int node, int stringPos) {
+        if (isSet(node, stringPos)) return true;
+        setValue(node, stringPos, false);
+        return false;
+    }
+
+    // Number of entries dropped to stay within a memory budget
+    default long evictions() {
+        return 0;
+    }
+
+    // Releases memory that is not managed by the garbage collector,
+    // the table must not be used afterwards
+    @Override
+    default void close() {
+    }
+}
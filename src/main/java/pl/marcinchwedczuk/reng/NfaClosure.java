@@ -0,0 +1,155 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Subset construction steps shared by the DFA engines.
+ * A DFA state is a sorted set of NFA instructions that wait for input:
+ * character tests, MATCH, and AT_END instructions that cannot be
+ * decided until we know whether more input follows.
+ * Holds scratch space, so an instance must not be shared by threads.
+ */
+final class NfaClosure {
+    private final NfaProgram program;
+    private final boolean[] seen;
+    private final int[] seenList;
+    private int seenCount;
+    private final int[] stack;
+    private final int[] closure;
+    private int closureSize;
+
+    NfaClosure(NfaProgram program) {
+        this.program = program;
+        this.seen = new boolean[program.size()];
+        this.seenList = new int[program.size()];
+        // Every pc is expanded once and pushes at most two targets
+        this.stack = new int[2 * program.size() + 1];
+        this.closure = new int[program.size()];
+    }
+
+    /** State at the beginning of the input. */
+    int[] start() {
+        return start(true);
+    }
+
+    /** State before any input was consumed, e.g. in the middle of the
+     * input when scanning backwards from there.
+     */
+    int[] start(boolean atBeginning) {
+        begin();
+        add(0, atBeginning, false);
+        return end();
+    }
+
+    /** State after consuming c in the state from. When restart is true
+     * the pattern is also started again at the next position, which
+     * turns an anchored automaton into a search.
+     */
+    int[] step(int[] from, char c, boolean restart) {
+        begin();
+        for (int pc : from) {
+            int op = program.op[pc];
+            if ((op == NfaProgram.CHAR || op == NfaProgram.NOT_CHAR)
+                    && program.accepts(pc, c)) {
+                add(pc + 1, false, false);
+            }
+        }
+        if (restart) {
+            add(0, false, false);
+        }
+        return end();
+    }
+
+    /** Checks if the state matches when no input is left. */
+    boolean acceptsAtEnd(int[] state, boolean atBeginning) {
+        begin();
+        for (int pc : state) {
+            add(pc, atBeginning, true);
+        }
+        return isMatch(end());
+    }
+
+    /** Checks if the state matches no matter what follows. */
+    boolean isMatch(int[] state) {
+        return Arrays.binarySearch(state, matchPc()) >= 0;
+    }
+
+    private int matchPc() {
+        // NfaProgram.compile() always ends the program with MATCH
+        return program.size() - 1;
+    }
+
+    private void begin() {
+        closureSize = 0;
+        seenCount = 0;
+    }
+
+    // Follows instructions that consume no input from pc.
+    private void add(int pc, boolean atBeginning, boolean atEnd) {
+        int top = 0;
+        stack[top++] = pc;
+
+        while (top > 0) {
+            pc = stack[--top];
+            if (seen[pc]) continue;
+            seen[pc] = true;
+            seenList[seenCount++] = pc;
+
+            switch (program.op[pc]) {
+                case NfaProgram.JMP:
+                    stack[top++] = program.x[pc];
+                    break;
+
+                case NfaProgram.SPLIT:
+                    stack[top++] = program.y[pc];
+                    stack[top++] = program.x[pc];
+                    break;
+
+                case NfaProgram.AT_BEGINNING:
+                    if (atBeginning) stack[top++] = pc + 1;
+                    break;
+
+                case NfaProgram.AT_END:
+                    if (atEnd) stack[top++] = pc + 1;
+                    else closure[closureSize++] = pc;
+                    break;
+
+                default:
+                    closure[closureSize++] = pc;
+                    break;
+            }
+        }
+    }
+
+    // Order does not matter when we only ask whether there is a match,
+    // sorting makes equal states compare equal
+    private int[] end() {
+        int[] set = Arrays.copyOf(closure, closureSize);
+        Arrays.sort(set);
+        for (int i = 0; i < seenCount; i++) {
+            seen[seenList[i]] = false;
+        }
+        return set;
+    }
+
+    // Hash map key for a DFA state
+    static final class StateKey {
+        private final int[] set;
+        private final int hash;
+
+        StateKey(int[] set) {
+            this.set = set;
+            this.hash = Arrays.hashCode(set);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(set, ((StateKey) o).set);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
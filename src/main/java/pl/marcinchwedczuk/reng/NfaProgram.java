@@ -0,0 +1,292 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Arrays;
+
+/**
+ * Regex compiled to a Thompson NFA, stored as a flat program.
+ * Instruction pc is described by op[pc], its jump targets x[pc], y[pc]
+ * and for character tests the GROUP or NEGATED_GROUP node in node[pc].
+ * A SPLIT prefers x over y, which keeps the backtracker's priorities:
+ * repeats are greedy and earlier alternatives win.
+ * An iteration of a loop that consumed no input ends the loop, like in
+ * BacktrackingMatcher. For loops whose body can match the empty string
+ * the SPLIT that starts an iteration has loop[pc] >= 0 and the JMP
+ * that ends it the same number, other instructions have -1. Such a JMP
+ * continues at y[pc], the exit of the loop, when the iteration started
+ * at the current position, and at x[pc] otherwise. Engines that only
+ * decide whether there is a match may ignore this, it does not change
+ * the matched strings.
+ * A loop nested in loopLevel[loop] other numbered loops gets bit
+ * 1 << loopLevel[loop] in the set of loops entered at the current
+ * position, which has loopDepth bits.
+ * Lookaheads have no NFA equivalent and are not supported.
+ */
+final class NfaProgram {
+    // Consume one character contained in node[pc].chars
+    static final int CHAR = 0;
+    // Consume one character not contained in node[pc].chars
+    static final int NOT_CHAR = 1;
+    // Continue at x[pc], then at y[pc]
+    static final int SPLIT = 2;
+    // Continue at x[pc]
+    static final int JMP = 3;
+    // Continue at pc+1 when at the beginning of the input
+    static final int AT_BEGINNING = 4;
+    // Continue at pc+1 when at the end of the input
+    static final int AT_END = 5;
+    // Pattern matched
+    static final int MATCH = 6;
+
+    // Counted repeats are unrolled, this keeps r{1,1000000} in check
+    static final int MAX_PROGRAM_SIZE = 100_000;
+    // Limit of size() << loopDepth, the instructions paired with sets
+    // of entered loops that PikeVmMatcher keeps track of
+    static final int MAX_LOOP_STATES = 4 * MAX_PROGRAM_SIZE;
+
+    // Used by r{N,M} with M < N, it never matches
+    private static final RAst NOTHING = RAst.group();
+
+    final int[] op;
+    final int[] x;
+    final int[] y;
+    final RAst[] node;
+    final int[] loop;
+    final int loopCount;
+    final int[] loopLevel;
+    final int loopDepth;
+
+    private NfaProgram(int[] op, int[] x, int[] y, RAst[] node,
+                       int[] loop, int[] loopLevel, int loopDepth) {
+        this.op = op;
+        this.x = x;
+        this.y = y;
+        this.node = node;
+        this.loop = loop;
+        this.loopCount = loopLevel.length;
+        this.loopLevel = loopLevel;
+        this.loopDepth = loopDepth;
+    }
+
+    public int size() {
+        return op.length;
+    }
+
+    /** Checks that regex uses only features an NFA can express. */
+    public static boolean supports(RAst regex) {
+        switch (regex.type) {
+            case POSLOOKAHEAD:
+            case NEGLOOKAHEAD:
+                return false;
+            default:
+                for (RAst e : regex.exprs) {
+                    if (!supports(e)) return false;
+                }
+                return true;
+        }
+    }
+
+    public static NfaProgram compile(RAst regex) {
+        if (!supports(regex)) {
+            throw new IllegalArgumentException(
+                    "Lookaheads cannot be compiled to an NFA.");
+        }
+
+        Builder builder = new Builder();
+        builder.emit(regex);
+        builder.add(MATCH, null);
+
+        NfaProgram program = builder.build();
+        if (((long) program.size() << program.loopDepth) > MAX_LOOP_STATES) {
+            throw new IllegalArgumentException(
+                    "Loops that can match the empty string are nested too deeply " +
+                    "to compile to an NFA.");
+        }
+        return program;
+    }
+
+    // Checks if the character at pc is accepted by a CHAR or NOT_CHAR
+    boolean accepts(int pc, char c) {
+        return node[pc].chars.contains(c) == (op[pc] == CHAR);
+    }
+
+    private static class Builder {
+        private int[] op = new int[16];
+        private int[] x = new int[16];
+        private int[] y = new int[16];
+        private RAst[] node = new RAst[16];
+        private int[] loop = new int[16];
+        private int size = 0;
+        private int[] loopLevel = new int[4];
+        private int loopCount = 0;
+        // Numbered loops around the code being emitted
+        private int level = 0;
+        private int loopDepth = 0;
+
+        int pc() {
+            return size;
+        }
+
+        int add(int opcode, RAst ast) {
+            if (size == MAX_PROGRAM_SIZE) {
+                throw new IllegalArgumentException(
+                        "Pattern is too large to compile to an NFA.");
+            }
+            if (size == op.length) {
+                op = Arrays.copyOf(op, 2 * size);
+                x = Arrays.copyOf(x, 2 * size);
+                y = Arrays.copyOf(y, 2 * size);
+                node = Arrays.copyOf(node, 2 * size);
+                loop = Arrays.copyOf(loop, 2 * size);
+            }
+            op[size] = opcode;
+            node[size] = ast;
+            loop[size] = -1;
+            return size++;
+        }
+
+        void emit(RAst ast) {
+            switch (ast.type) {
+                case AT_BEGINNING:
+                    add(AT_BEGINNING, null);
+                    break;
+
+                case AT_END:
+                    add(AT_END, null);
+                    break;
+
+                case GROUP:
+                    add(CHAR, ast);
+                    break;
+
+                case NEGATED_GROUP:
+                    add(NOT_CHAR, ast);
+                    break;
+
+                case CONCAT:
+                    for (RAst e : ast.exprs) {
+                        emit(e);
+                    }
+                    break;
+
+                case ALTERNATIVE:
+                    emitAlternative(ast);
+                    break;
+
+                case REPEAT:
+                    emitRepeat(ast);
+                    break;
+
+                default:
+                    throw new AssertionError("Unknown enum value: " + ast.type);
+            }
+        }
+
+        private void emitAlternative(RAst ast) {
+            int last = ast.exprs.size() - 1;
+            int[] jumps = new int[last];
+
+            for (int i = 0; i < last; i++) {
+                int split = add(SPLIT, null);
+                x[split] = pc();
+                emit(ast.exprs.get(i));
+                jumps[i] = add(JMP, null);
+                y[split] = pc();
+            }
+            emit(ast.exprs.get(last));
+
+            for (int jump : jumps) {
+                x[jump] = pc();
+            }
+        }
+
+        private void emitRepeat(RAst ast) {
+            RAst body = ast.headExpr();
+            if (ast.repeatMax < ast.repeatMin) {
+                add(CHAR, NOTHING);
+                return;
+            }
+
+            for (long i = 0; i < ast.repeatMin; i++) {
+                emit(body);
+            }
+
+            if (ast.repeatMax == RAst.UNBOUND) {
+                // L: split L1, L2; L1: body; jmp L, L2; L2:
+                int number = nullableLoop(body, true);
+                int split = add(SPLIT, null);
+                loop[split] = number;
+                x[split] = pc();
+                emitBody(body, number);
+                int jump = add(JMP, null);
+                loop[jump] = number;
+                x[jump] = split;
+                y[split] = y[jump] = pc();
+            } else {
+                emitOptionalCopies(body, ast.repeatMax - ast.repeatMin);
+            }
+        }
+
+        // Optional copies, each one skips to the end. Copies of a body
+        // that can match the empty string are chained with JMPs ending
+        // the iteration, other copies follow each other directly.
+        private void emitOptionalCopies(RAst body, long count) {
+            int optional = (int) Math.min(count, MAX_PROGRAM_SIZE);
+            int number = nullableLoop(body, optional > 1);
+
+            int[] exits = new int[2 * optional];
+            int exitCount = 0;
+            for (int i = 0; i < optional; i++) {
+                int split = add(SPLIT, null);
+                exits[exitCount++] = split;
+                loop[split] = number;
+                x[split] = pc();
+                emitBody(body, number);
+
+                if (number >= 0 && i < optional - 1) {
+                    int jump = add(JMP, null);
+                    exits[exitCount++] = jump;
+                    loop[jump] = number;
+                    x[jump] = pc();
+                }
+            }
+            for (int i = 0; i < exitCount; i++) {
+                y[exits[i]] = pc();
+            }
+        }
+
+        // Numbers a loop when an empty iteration can be followed by
+        // another one, returns -1 otherwise
+        private int nullableLoop(RAst body, boolean repeated) {
+            if (!repeated || !FirstChars.of(body).isNullable()) return -1;
+
+            if (loopCount == loopLevel.length) {
+                loopLevel = Arrays.copyOf(loopLevel, 2 * loopCount);
+            }
+            loopLevel[loopCount] = level;
+            return loopCount++;
+        }
+
+        private void emitBody(RAst body, int number) {
+            if (number < 0) {
+                emit(body);
+                return;
+            }
+
+            level++;
+            loopDepth = Math.max(loopDepth, level);
+            emit(body);
+            level--;
+        }
+
+        NfaProgram build() {
+            return new NfaProgram(
+                    Arrays.copyOf(op, size),
+                    Arrays.copyOf(x, size),
+                    Arrays.copyOf(y, size),
+                    Arrays.copyOf(node, size),
+                    Arrays.copyOf(loop, size),
+                    Arrays.copyOf(loopLevel, loopCount),
+                    loopDepth);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * BIT_MAP grid kept outside the java heap.
+ * Same two bits per cell, row-major layout as BacktrackingMatcher.BitMap,
+ * but the words live in direct buffers or a memory-mapped scratch file
+ * that is released by close() at the end of the match.
+ */
+class OffHeapBitMap implements MemoTable {
+    private static final long SET_BIT = 1L;
+    private static final long MATCH_BIT = 2L;
+
+    private final OffHeapWords words;
+    private final int rowLength;
+
+    public OffHeapBitMap(int regNodes, int inputLength, boolean mapped) {
+        // Node ids are 0 to regNodes-1, positions 0 to inputLength
+        this.rowLength = inputLength + 1;
+        long cells = (long) regNodes * rowLength;
+        // 32 cells per word, fresh memory is zeroed so all cells are not set
+        long size = (cells + 31) >>> 5;
+        this.words = mapped
+                ? OffHeapWords.mapped(size)
+                : OffHeapWords.direct(size);
+    }
+
+    @Override
+    public boolean isSet(int node, int stringPos) {
+        return (cell(node, stringPos) & SET_BIT) != 0;
+    }
+
+    @Override
+    public boolean isMatch(int node, int stringPos) {
+        return (cell(node, stringPos) & MATCH_BIT) != 0;
+    }
+
+    @Override
+    public byte lookup(int node, int stringPos) {
+        long cell = cell(node, stringPos);
+        if ((cell & SET_BIT) == 0) return UNSET;
+        return ((cell & MATCH_BIT) != 0) ? MATCHED : FAILED;
+    }
+
+    @Override
+    public void setValue(int node, int stringPos, boolean match) {
+        set(node, stringPos, match);
+    }
+
+    @Override
+    public boolean testAndSetFailed(int node, int stringPos) {
+        return set(node, stringPos, false);
+    }
+
+    // Returns true when the cell was set before
+    private boolean set(int node, int stringPos, boolean match) {
+        long index = index(node, stringPos);
+        long word = index >>> 5;
+        int shift = (int) (index & 31) << 1;
+
+        long bits = words.get(word);
+        if ((bits & (SET_BIT << shift)) != 0)
+            return true;
+        long value = match ? (SET_BIT | MATCH_BIT) : SET_BIT;
+        words.set(word, bits | (value << shift));
+        return false;
+    }
+
+    @Override
+    public void close() {
+        words.close();
+    }
+
+    private long cell(int node, int stringPos) {
+        long index = index(node, stringPos);
+        int shift = (int) (index & 31) << 1;
+        return words.get(index >>> 5) >>> shift;
+    }
+
+    private long index(int node, int stringPos) {
+        if (stringPos >= rowLength)
+            throw new ArrayIndexOutOfBoundsException(stringPos);
+        return (long) node * rowLength + stringPos;
+    }
+}
@@ -0,0 +1,178 @@
+package pl.marcinchwedczuk.reng;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Zero initialised array of longs that lives outside the java heap,
+ * either in direct ByteBuffers or in a memory-mapped scratch file.
+ * The memory is released by close(), not by the garbage collector.
+ */
+final class OffHeapWords implements AutoCloseable {
+    // 2^27 longs = 1GB per buffer, a single ByteBuffer cannot exceed 2GB
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private final long size;
+    private ByteBuffer[] buffers;
+    private LongBuffer[] segments;
+    private final Path scratchFile;
+
+    private OffHeapWords(long size, ByteBuffer[] buffers, Path scratchFile) {
+        this.size = size;
+        this.buffers = buffers;
+        this.scratchFile = scratchFile;
+        this.segments = new LongBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            segments[i] = buffers[i].order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+    }
+
+    public static OffHeapWords direct(long size) {
+        ByteBuffer[] buffers = new ByteBuffer[segmentCount(size)];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(segmentBytes(size, i));
+        }
+        return new OffHeapWords(size, buffers, null);
+    }
+
+    public static OffHeapWords mapped(long size) {
+        Path file = null;
+        try {
+            file = Files.createTempFile("reng-memo", ".tmp");
+            ByteBuffer[] buffers = new ByteBuffer[segmentCount(size)];
+
+            // Mapping stays valid after the channel is closed
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long offset = 0;
+                for (int i = 0; i < buffers.length; i++) {
+                    int bytes = segmentBytes(size, i);
+                    buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes);
+                    offset += bytes;
+                }
+            }
+            return new OffHeapWords(size, buffers, file);
+        } catch (IOException e) {
+            deleteQuietly(file);
+            throw new UncheckedIOException("Cannot create memo scratch file.", e);
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public long get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)]
+                .get((int) (index & SEGMENT_MASK));
+    }
+
+    public void set(long index, long value) {
+        segments[(int) (index >>> SEGMENT_SHIFT)]
+                .put((int) (index & SEGMENT_MASK), value);
+    }
+
+    /** Returns a view of length words starting at index, the range
+     * must lie within a single 1GB segment. The view must not be used
+     * after close().
+     */
+    LongBuffer slice(long index, int length) {
+        LongBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        int offset = (int) (index & SEGMENT_MASK);
+        if (offset + (long) length > segment.capacity()) {
+            throw new IllegalArgumentException(
+                    "Slice crosses a segment boundary: " + index + "+" + length);
+        }
+
+        LongBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    @Override
+    public void close() {
+        if (buffers == null) return;
+
+        // Drop references first so use after close fails with an
+        // exception instead of touching freed memory
+        ByteBuffer[] toFree = buffers;
+        buffers = null;
+        segments = null;
+
+        for (ByteBuffer buffer : toFree) {
+            free(buffer);
+        }
+        deleteQuietly(scratchFile);
+    }
+
+    private static int segmentCount(long size) {
+        return (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    }
+
+    private static int segmentBytes(long size, int segment) {
+        long first = (long) segment << SEGMENT_SHIFT;
+        long words = Math.min(size - first, 1L << SEGMENT_SHIFT);
+        return (int) (words * Long.BYTES);
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) return;
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Temp directory is cleaned by the OS eventually
+        }
+    }
+
+    // Releasing a direct or mapped buffer has no public API,
+    // Java 9+ exposes Unsafe.invokeCleaner, Java 8 has DirectBuffer.cleaner().
+    // When neither works the buffer is left to the garbage collector.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafe = theUnsafe.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    static void free(ByteBuffer buffer) {
+        if (!buffer.isDirect()) return;
+
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Fall back to the garbage collector
+        }
+    }
+}
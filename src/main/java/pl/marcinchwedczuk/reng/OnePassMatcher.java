@@ -0,0 +1,224 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Matcher for patterns anchored with ^...$ that are one-pass:
+ * after every prefix of the input at most one NFA thread is alive,
+ * so the next char always picks a single instruction to continue at.
+ * Such a pattern is run by a single forward scan over a table with
+ * one state per character instruction, without backtracking,
+ * memoisation or thread lists. Because the pattern is anchored, a
+ * match always spans the whole input, so find() needs no extra work.
+ */
+public final class OnePassMatcher {
+    // No instruction accepts the char
+    private static final int FAIL = -1;
+
+    private final AlphabetPartition alphabet;
+    private final int classCount;
+    // table[state * classCount + charClass] is the next state or FAIL
+    private final int[] table;
+    // Matches when the input ends in this state
+    private final boolean[] accepting;
+    // Empty input is at the beginning and at the end at once
+    private final boolean matchesEmpty;
+
+    private OnePassMatcher(AlphabetPartition alphabet, int[] table,
+                           boolean[] accepting, boolean matchesEmpty) {
+        this.alphabet = alphabet;
+        this.classCount = alphabet.classCount();
+        this.table = table;
+        this.accepting = accepting;
+        this.matchesEmpty = matchesEmpty;
+    }
+
+    /** Returns null unless the pattern is a concatenation starting with ^
+     * and ending with $ that is one-pass. Lookaheads are not supported.
+     */
+    public static OnePassMatcher tryCompile(RAst regex) {
+        if (!isFullyAnchored(regex) || !NfaProgram.supports(regex)) return null;
+
+        NfaProgram program;
+        try {
+            program = NfaProgram.compile(regex);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return new Builder(program).build();
+    }
+
+    static boolean isFullyAnchored(RAst regex) {
+        if (regex.type != RAstType.CONCAT || regex.exprs.size() < 2) return false;
+        List<RAst> parts = regex.exprs;
+        return parts.get(0).type == RAstType.AT_BEGINNING
+                && parts.get(parts.size() - 1).type == RAstType.AT_END;
+    }
+
+    /** Number of states, at most one per character instruction plus the start. */
+    public int stateCount() {
+        return accepting.length;
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        if (s.isEmpty()) return matchesEmpty;
+
+        int[] table = this.table;
+        int state = 0;
+        for (int i = 0; i < s.length(); i++) {
+            state = table[state * classCount + alphabet.classOf(s.charAt(i))];
+            if (state == FAIL) return false;
+        }
+        return accepting[state];
+    }
+
+    /** Finds the match in s, it is either the whole input or nothing. */
+    public Match find(String s) {
+        return matches(s)
+                ? new Match(s, true, 0, s.length())
+                : new Match(s, false, -1, -1);
+    }
+
+    // Every state is an instruction where a thread continues after
+    // consuming a char, state 0 is the start of the program
+    private static final class Builder {
+        private final NfaProgram program;
+        private final AlphabetPartition alphabet;
+        private final int classCount;
+
+        // Indexed by pc, FAIL when no state starts there yet
+        private final int[] stateOf;
+        private final List<Integer> statePc = new ArrayList<>();
+        private final Deque<Integer> pending = new ArrayDeque<>();
+
+        // Closure of the state being built, an instruction was visited
+        // when its entry equals the closure number
+        private final int[] seen;
+        private final int[] seenAfterEnd;
+        private int closureNumber = 0;
+        private final List<Integer> charPcs = new ArrayList<>();
+        private boolean reachesMatch;
+
+        Builder(NfaProgram program) {
+            this.program = program;
+            this.alphabet = AlphabetPartition.of(program);
+            this.classCount = alphabet.classCount();
+            this.stateOf = new int[program.size()];
+            this.seen = new int[program.size()];
+            this.seenAfterEnd = new int[program.size()];
+            Arrays.fill(stateOf, FAIL);
+        }
+
+        // Returns null when some char can continue at two instructions
+        OnePassMatcher build() {
+            stateOf(0);
+            int[] table = new int[16 * classCount];
+            List<Boolean> accepting = new ArrayList<>();
+            boolean matchesEmpty = false;
+
+            while (!pending.isEmpty()) {
+                int state = pending.poll();
+                // Only the start state can be at the beginning of input
+                closure(statePc.get(state), state == 0);
+                if (state == 0) matchesEmpty = reachesMatch;
+
+                accepting.add(reachesMatch);
+
+                if (table.length < (state + 1) * classCount) {
+                    table = Arrays.copyOf(table, 2 * (state + 1) * classCount);
+                }
+
+                for (int c = 0; c < classCount; c++) {
+                    char representative = alphabet.representative(c);
+                    int next = FAIL;
+                    for (int pc : charPcs) {
+                        if (!program.accepts(pc, representative)) continue;
+                        if (next != FAIL) return null;
+                        next = stateOf(pc + 1);
+                    }
+                    table[state * classCount + c] = next;
+                }
+            }
+
+            int n = statePc.size();
+            boolean[] acceptingStates = new boolean[n];
+            for (int s = 0; s < n; s++) acceptingStates[s] = accepting.get(s);
+            return new OnePassMatcher(alphabet,
+                    Arrays.copyOf(table, n * classCount),
+                    acceptingStates, matchesEmpty);
+        }
+
+        private int stateOf(int pc) {
+            if (stateOf[pc] == FAIL) {
+                stateOf[pc] = statePc.size();
+                statePc.add(pc);
+                pending.add(stateOf[pc]);
+            }
+            return stateOf[pc];
+        }
+
+        // Collects the char instructions reachable without consuming input
+        // and whether MATCH is reachable when the input ends here.
+        // Uses an explicit stack, unrolled repeats make long JMP chains.
+        private void closure(int startPc, boolean atBeginning) {
+            closureNumber++;
+            charPcs.clear();
+            reachesMatch = false;
+
+            // pc, negated when the thread passed $
+            Deque<Integer> stack = new ArrayDeque<>();
+            stack.push(startPc);
+
+            while (!stack.isEmpty()) {
+                int top = stack.pop();
+                boolean afterEnd = top < 0;
+                int pc = afterEnd ? -top - 1 : top;
+
+                int[] visited = afterEnd ? seenAfterEnd : seen;
+                if (visited[pc] == closureNumber) continue;
+                visited[pc] = closureNumber;
+
+                switch (program.op[pc]) {
+                    case NfaProgram.CHAR:
+                    case NfaProgram.NOT_CHAR:
+                        // No char follows the end of input
+                        if (!afterEnd) charPcs.add(pc);
+                        break;
+
+                    case NfaProgram.SPLIT:
+                        stack.push(encode(program.y[pc], afterEnd));
+                        stack.push(encode(program.x[pc], afterEnd));
+                        break;
+
+                    case NfaProgram.JMP:
+                        stack.push(encode(program.x[pc], afterEnd));
+                        break;
+
+                    case NfaProgram.AT_BEGINNING:
+                        if (atBeginning) stack.push(encode(pc + 1, afterEnd));
+                        break;
+
+                    case NfaProgram.AT_END:
+                        stack.push(encode(pc + 1, true));
+                        break;
+
+                    case NfaProgram.MATCH:
+                        reachesMatch = true;
+                        break;
+
+                    default:
+                        throw new AssertionError("Unknown opcode: " + program.op[pc]);
+                }
+            }
+        }
+
+        private static int encode(int pc, boolean afterEnd) {
+            return afterEnd ? -pc - 1 : pc;
+        }
+    }
+}
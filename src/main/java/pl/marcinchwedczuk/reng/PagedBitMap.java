@@ -0,0 +1,97 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Lazily allocated variant of BacktrackingMatcher.BitMap.
+ * Uses the same two bits per cell encoding, but a node row is split into
+ * fixed-size pages of positions. Neither the row nor its pages exist
+ * until something is memoised there, so memory follows the
+ * (node, position) band the matcher actually visits.
+ */
+class PagedBitMap implements MemoTable {
+    private static final long SET_BIT = 1L;
+    private static final long MATCH_BIT = 2L;
+
+    // 1024 positions per page, 2 bits each = 32 longs
+    private static final int PAGE_SHIFT = 10;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int WORDS_PER_PAGE = PAGE_SIZE >>> 5;
+
+    private final long[][][] rows;
+    private final int pagesPerRow;
+    private int allocatedPages = 0;
+
+    public PagedBitMap(int regNodes, int inputLength) {
+        // Node ids are 0 to regNodes-1, positions 0 to inputLength
+        this.rows = new long[regNodes][][];
+        this.pagesPerRow = ((inputLength + 1) + PAGE_MASK) >>> PAGE_SHIFT;
+    }
+
+    @Override
+    public boolean isSet(int node, int stringPos) {
+        return (cell(node, stringPos) & SET_BIT) != 0;
+    }
+
+    @Override
+    public boolean isMatch(int node, int stringPos) {
+        return (cell(node, stringPos) & MATCH_BIT) != 0;
+    }
+
+    @Override
+    public byte lookup(int node, int stringPos) {
+        long cell = cell(node, stringPos);
+        if ((cell & SET_BIT) == 0) return UNSET;
+        return ((cell & MATCH_BIT) != 0) ? MATCHED : FAILED;
+    }
+
+    @Override
+    public void setValue(int node, int stringPos, boolean match) {
+        set(node, stringPos, match);
+    }
+
+    @Override
+    public boolean testAndSetFailed(int node, int stringPos) {
+        return set(node, stringPos, false);
+    }
+
+    // Returns true when the cell was set before
+    private boolean set(int node, int stringPos, boolean match) {
+        long[][] row = rows[node];
+        if (row == null) {
+            row = rows[node] = new long[pagesPerRow][];
+        }
+
+        int pageIndex = stringPos >>> PAGE_SHIFT;
+        long[] page = row[pageIndex];
+        if (page == null) {
+            page = row[pageIndex] = new long[WORDS_PER_PAGE];
+            allocatedPages++;
+        }
+
+        int offset = stringPos & PAGE_MASK;
+        int word = offset >>> 5;
+        int shift = (offset & 31) << 1;
+
+        if ((page[word] & (SET_BIT << shift)) != 0)
+            return true;
+        long bits = match ? (SET_BIT | MATCH_BIT) : SET_BIT;
+        page[word] |= bits << shift;
+        return false;
+    }
+
+    // Number of pages allocated so far, used by tests
+    int allocatedPages() {
+        return allocatedPages;
+    }
+
+    private long cell(int node, int stringPos) {
+        long[][] row = rows[node];
+        if (row == null) return 0;
+
+        long[] page = row[stringPos >>> PAGE_SHIFT];
+        if (page == null) return 0;
+
+        int offset = stringPos & PAGE_MASK;
+        return page[offset >>> 5] >>> ((offset & 31) << 1);
+    }
+}
@@ -0,0 +1,96 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Features of a pattern that decide which engines can run it
+ * and how fast they are going to be.
+ */
+public final class PatternFeatures {
+    private boolean hasLookaheads = false;
+    private boolean hasBackreferences = false;
+    private boolean hasRepeats = false;
+    private boolean hasCountedRepeats = false;
+    private long maxRepeatCount = 0;
+    private int nodeCount = 0;
+
+    private PatternFeatures() { }
+
+    public static PatternFeatures of(RAst regex) {
+        PatternFeatures features = new PatternFeatures();
+        features.visit(regex, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return features;
+    }
+
+    private void visit(RAst ast, Set<RAst> seen) {
+        // The parser turns \N into the very node of group N,
+        // a node reachable twice comes from a backreference
+        if (!seen.add(ast)) {
+            hasBackreferences = true;
+            return;
+        }
+        nodeCount++;
+
+        switch (ast.type) {
+            case POSLOOKAHEAD:
+            case NEGLOOKAHEAD:
+                hasLookaheads = true;
+                break;
+
+            case REPEAT:
+                hasRepeats = true;
+                if (RepeatUnroller.isCounted(ast)) {
+                    hasCountedRepeats = true;
+                    long count = (ast.repeatMax == RAst.UNBOUND)
+                            ? ast.repeatMin
+                            : ast.repeatMax;
+                    maxRepeatCount = Math.max(maxRepeatCount, count);
+                }
+                break;
+
+            default:
+                break;
+        }
+
+        for (RAst e : ast.exprs) {
+            visit(e, seen);
+        }
+    }
+
+    public boolean hasLookaheads() {
+        return hasLookaheads;
+    }
+
+    public boolean hasBackreferences() {
+        return hasBackreferences;
+    }
+
+    public boolean hasRepeats() {
+        return hasRepeats;
+    }
+
+    public boolean hasCountedRepeats() {
+        return hasCountedRepeats;
+    }
+
+    /** Largest bound of a counted repeat, automata unroll them. */
+    public long maxRepeatCount() {
+        return maxRepeatCount;
+    }
+
+    /** Number of distinct nodes, shared nodes are counted once. */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public String toString() {
+        return "nodes=" + nodeCount +
+                ", lookaheads=" + hasLookaheads +
+                ", backreferences=" + hasBackreferences +
+                ", repeats=" + hasRepeats +
+                ", maxRepeatCount=" + maxRepeatCount;
+    }
+}
@@ -0,0 +1,209 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Simulates an NfaProgram with Pike VM thread lists.
+ * All threads advance over the input in lock step, a thread list holds
+ * each instruction at most once, so a match takes O(program * input)
+ * time without any memo table. Threads are kept in priority order,
+ * which gives the same leftmost match as the BacktrackingMatcher.
+ * An empty loop iteration ends the loop there too: while following
+ * instructions that consume nothing the VM remembers which loops were
+ * entered at the current position, see NfaProgram.loopLevel. Such an
+ * instruction is followed once for every set of entered loops, which
+ * multiplies the time by 2^loopDepth for nested nullable loops.
+ */
+public final class PikeVmMatcher {
+    private final NfaProgram program;
+
+    private PikeVmMatcher(NfaProgram program) {
+        this.program = program;
+    }
+
+    /** Throws IllegalArgumentException for patterns with lookaheads,
+     * see NfaProgram.supports(RAst).
+     */
+    public static PikeVmMatcher compile(RAst regex) {
+        return new PikeVmMatcher(NfaProgram.compile(regex));
+    }
+
+    public static Match match(String s, RAst regex) {
+        return compile(regex).find(s);
+    }
+
+    /** Finds the leftmost match in s. */
+    public Match find(String s) {
+        return run(s, false);
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        return run(s, true).hasMatch;
+    }
+
+    private Match run(String s, boolean wholeInput) {
+        NfaProgram prog = program;
+        int length = s.length();
+
+        int states = prog.size() << prog.loopDepth;
+        Threads curr = new Threads(prog.size(), states);
+        Threads next = new Threads(prog.size(), states);
+        // Every state is expanded once per list and pushes at most two
+        // targets, so this many entries are always enough
+        int[] stack = new int[2 * states + 1];
+
+        int matchStart = -1;
+        int matchEnd = -1;
+
+        for (int pos = 0; ; pos++) {
+            // New threads have the lowest priority, once something
+            // matched no later start can be leftmost
+            if (matchStart < 0 && (pos == 0 || !wholeInput)) {
+                addThread(curr, 0, pos, pos, length, stack);
+            }
+            // Only threads waiting for input are listed, a search
+            // goes on while new ones are started
+            if (curr.size == 0 && (matchStart >= 0 || wholeInput)) break;
+
+            char c = (pos < length) ? s.charAt(pos) : 0;
+
+            threads:
+            for (int i = 0; i < curr.size; i++) {
+                int pc = curr.pcs[i];
+
+                switch (prog.op[pc]) {
+                    case NfaProgram.CHAR:
+                    case NfaProgram.NOT_CHAR:
+                        if (pos < length && prog.accepts(pc, c)) {
+                            addThread(next, pc + 1, curr.starts[i], pos + 1, length, stack);
+                        }
+                        break;
+
+                    case NfaProgram.MATCH:
+                        if (!wholeInput || pos == length) {
+                            matchStart = curr.starts[i];
+                            matchEnd = pos;
+                            // Threads with lower priority are dropped
+                            break threads;
+                        }
+                        break;
+
+                    default:
+                        // Control instructions were followed by addThread
+                        break;
+                }
+            }
+
+            if (pos == length) break;
+
+            Threads tmp = curr;
+            curr = next;
+            next = tmp;
+            next.clear();
+        }
+
+        return (matchStart >= 0)
+                ? new Match(s, true, matchStart, matchEnd)
+                : new Match(s, false, -1, -1);
+    }
+
+    // Adds pc and everything reachable from it without consuming input,
+    // in priority order. Uses an explicit stack instead of recursion.
+    // A state is a pc shifted left by loopDepth, with the bits of the
+    // loops entered at this position below it.
+    private void addThread(Threads list, int pc, int start,
+                           int pos, int length, int[] stack) {
+        NfaProgram prog = program;
+        int depth = prog.loopDepth;
+        int top = 0;
+        stack[top++] = pc << depth;
+
+        while (top > 0) {
+            int state = stack[--top];
+            if (list.visited(state)) continue;
+
+            pc = state >>> depth;
+            int entered = state - (pc << depth);
+            int loop = prog.loop[pc];
+            int bit = (loop >= 0) ? 1 << prog.loopLevel[loop] : 0;
+
+            switch (prog.op[pc]) {
+                case NfaProgram.JMP:
+                    if ((entered & bit) != 0) {
+                        // The iteration consumed nothing, it ends the loop
+                        stack[top++] = (prog.y[pc] << depth) | (entered & ~bit);
+                    } else {
+                        stack[top++] = (prog.x[pc] << depth) | entered;
+                    }
+                    break;
+
+                case NfaProgram.SPLIT:
+                    // y is pushed first so x is followed first
+                    stack[top++] = (prog.y[pc] << depth) | (entered & ~bit);
+                    stack[top++] = (prog.x[pc] << depth) | entered | bit;
+                    break;
+
+                case NfaProgram.AT_BEGINNING:
+                    if (pos == 0) stack[top++] = ((pc + 1) << depth) | entered;
+                    break;
+
+                case NfaProgram.AT_END:
+                    if (pos == length) stack[top++] = ((pc + 1) << depth) | entered;
+                    break;
+
+                default:
+                    // CHAR, NOT_CHAR and MATCH wait for the next step,
+                    // what they do does not depend on the entered loops
+                    if (!list.contains(pc)) list.add(pc, start);
+                    break;
+            }
+        }
+    }
+
+    // Sparse set of program counters, remembers insertion order,
+    // and sparse set of the states addThread() already expanded
+    private static final class Threads {
+        final int[] pcs;
+        final int[] starts;
+        final int[] index;
+        int size = 0;
+
+        private final int[] states;
+        private final int[] stateIndex;
+        private int stateCount = 0;
+
+        Threads(int programSize, int stateCount) {
+            pcs = new int[programSize];
+            starts = new int[programSize];
+            index = new int[programSize];
+            states = new int[stateCount];
+            stateIndex = new int[stateCount];
+        }
+
+        // Adds the state, returns true when it was already there
+        boolean visited(int state) {
+            int i = stateIndex[state];
+            if (i < stateCount && states[i] == state) return true;
+
+            stateIndex[state] = stateCount;
+            states[stateCount++] = state;
+            return false;
+        }
+
+        boolean contains(int pc) {
+            int i = index[pc];
+            return i < size && pcs[i] == pc;
+        }
+
+        void add(int pc, int start) {
+            index[pc] = size;
+            pcs[size] = pc;
+            starts[size] = start;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+            stateCount = 0;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package pl.marcinchwedczuk.reng;
+
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+/**
+ * A pattern compiled with the engine a planner picked for it.
+ * The planner looks at the features of the pattern and chooses the
+ * fastest engine that can run it correctly, see plan() for the choice
+ * and the reason. Instances can be shared between threads.
+ */
+public final class PlannedPattern {
+    // Patterns with more nodes get the RLE memo, which stays small
+    // on long inputs, smaller ones the BIT_MAP grid
+    static final int BIT_MAP_MAX_NODES = 64;
+
+    private final RAst regex;
+    private final EnginePlan plan;
+
+    // Only the engines the plan uses are set
+    private final OnePassMatcher onePass;
+    private final DfaMatcher fullDfa;
+    private final BitParallelMatcher bitParallel;
+    private final LazyDfaMatcher lazyDfa;
+    private final PikeVmMatcher pikeVm;
+    private final CompiledPattern backtracking;
+    // Set only when the caller opted in, see withCodegen()
+    private final CodegenMatcher codegen;
+
+    private PlannedPattern(RAst regex,
+                           EnginePlan plan,
+                           OnePassMatcher onePass,
+                           DfaMatcher fullDfa,
+                           BitParallelMatcher bitParallel,
+                           LazyDfaMatcher lazyDfa,
+                           PikeVmMatcher pikeVm,
+                           CompiledPattern backtracking,
+                           CodegenMatcher codegen) {
+        this.regex = regex;
+        this.plan = plan;
+        this.onePass = onePass;
+        this.fullDfa = fullDfa;
+        this.bitParallel = bitParallel;
+        this.lazyDfa = lazyDfa;
+        this.pikeVm = pikeVm;
+        this.backtracking = backtracking;
+        this.codegen = codegen;
+    }
+
+    public static PlannedPattern compile(String regex) {
+        return compile(RParser.parse(regex));
+    }
+
+    public static PlannedPattern compile(RAst regex) {
+        regex = RAstSimplifier.simplify(regex);
+        PatternFeatures features = PatternFeatures.of(regex);
+
+        if (features.hasLookaheads()) {
+            return backtracking(regex, features,
+                    "lookaheads can only be run by backtracking");
+        }
+
+        PikeVmMatcher pikeVm;
+        try {
+            pikeVm = PikeVmMatcher.compile(regex);
+        } catch (IllegalArgumentException e) {
+            // Counted repeats too large to unroll, or nullable loops
+            // nested too deeply
+            return backtracking(regex, features,
+                    "no automaton could be built: " + e.getMessage());
+        }
+
+        OnePassMatcher onePass = OnePassMatcher.tryCompile(regex);
+        if (onePass != null) {
+            EnginePlan plan = new EnginePlan(
+                    MatchEngine.ONE_PASS, MatchEngine.ONE_PASS, null, null,
+                    "pattern is anchored at both ends and every char " +
+                    "continues at a single instruction", features);
+            return new PlannedPattern(regex, plan, onePass, null, null, null, null, null, null);
+        }
+
+        String regular = features.hasBackreferences()
+                ? "backreferences repeat the group pattern, so it is still regular; "
+                : "";
+
+        DfaMatcher dfa = DfaMatcher.tryCompile(regex);
+        if (dfa != null) {
+            return new PlannedPattern(regex,
+                    plan(MatchEngine.FULL_DFA, regular +
+                            "DFA has " + dfa.stateCount() + " states, " +
+                            "one table lookup per character", features),
+                    null, dfa, null, null, pikeVm, null, null);
+        }
+
+        BitParallelMatcher bits = BitParallelMatcher.tryCompile(regex);
+        if (bits != null) {
+            return new PlannedPattern(regex,
+                    plan(MatchEngine.BIT_PARALLEL, regular +
+                            "DFA is too large, but " + bits.positionCount() +
+                            " positions fit in a single long", features),
+                    null, null, bits, null, pikeVm, null, null);
+        }
+
+        return new PlannedPattern(regex,
+                plan(MatchEngine.LAZY_DFA, regular +
+                        "DFA is too large to build ahead of time, " +
+                        "states are built on demand", features),
+                null, null, null, LazyDfaMatcher.compile(regex), pikeVm, null, null);
+    }
+
+    private static EnginePlan plan(MatchEngine engine, String reason,
+                                   PatternFeatures features) {
+        return new EnginePlan(engine, MatchEngine.PIKE_VM,
+                null, null, reason, features);
+    }
+
+    private static PlannedPattern backtracking(RAst regex,
+                                               PatternFeatures features,
+                                               String reason) {
+        // Without repeats the backtracking is bounded by the pattern.
+        // With them memoising in-degree > 1 nodes keeps it linear for
+        // r*, r+, r? and counted repeats small enough to be unrolled,
+        // see RepeatUnroller. Bodies of larger counted repeats, like the
+        // ones too large for an automaton, are not memoised and can
+        // still backtrack exponentially.
+        // Patterns with lookaheads are not memoised, the memo gave wrong
+        // spans for them and is not trusted there yet.
+        MemoisationPolicy policy = (features.hasRepeats() && !features.hasLookaheads())
+                ? MemoisationPolicy.IN_DEGREE_GREATER_THAN_1
+                : MemoisationPolicy.NONE;
+        MemoisationEncodingScheme scheme =
+                (features.nodeCount() <= BIT_MAP_MAX_NODES)
+                        ? MemoisationEncodingScheme.BIT_MAP
+                        : MemoisationEncodingScheme.RLE;
+
+        EnginePlan plan = new EnginePlan(
+                MatchEngine.BACKTRACKING, MatchEngine.BACKTRACKING,
+                policy, scheme, reason, features);
+        return new PlannedPattern(regex, plan, null, null, null, null, null,
+                CompiledPattern.compile(regex, policy, scheme), null);
+    }
+
+    /** Returns a copy of this pattern that reports where matches are
+     * with a matcher generated and compiled for this pattern, instead
+     * of the PikeVmMatcher. Compiling needs the system Java compiler
+     * and takes tens of milliseconds, so the planner never does it on
+     * its own. The copy keeps the engines of this pattern when there is
+     * no compiler (running on a JRE), when the pattern is too large or
+     * when the plan does not use the PikeVmMatcher.
+     */
+    public PlannedPattern withCodegen() {
+        if (plan.findEngine() != MatchEngine.PIKE_VM) return this;
+
+        CodegenMatcher generated = CodegenMatcher.tryCompile(regex,
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                MemoisationEncodingScheme.HASH_TABLE);
+        if (generated == null) return this;
+
+        EnginePlan codegenPlan = new EnginePlan(
+                plan.engine(), MatchEngine.CODEGEN, null, null,
+                plan.reason(), plan.features());
+        return new PlannedPattern(regex, codegenPlan, onePass, fullDfa,
+                bitParallel, lazyDfa, pikeVm, backtracking, generated);
+    }
+
+    public EnginePlan plan() {
+        return plan;
+    }
+
+    /** Finds the leftmost match in s. */
+    public Match find(String s) {
+        if (backtracking != null) {
+            return backtracking.find(s);
+        }
+        if (onePass != null) {
+            return onePass.find(s);
+        }
+        // Most input does not match, reject it before the NFA runs
+        if (!containsMatch(s)) {
+            return new Match(s, false, -1, -1);
+        }
+        return (codegen != null) ? codegen.find(s) : pikeVm.find(s);
+    }
+
+    /** Checks if the whole of s matches the pattern. */
+    public boolean matches(String s) {
+        switch (plan.engine()) {
+            case ONE_PASS: return onePass.matches(s);
+            case FULL_DFA: return fullDfa.matches(s);
+            case BIT_PARALLEL: return bitParallel.matches(s);
+            case LAZY_DFA: return lazyDfa.matches(s);
+            case BACKTRACKING: return backtracking.matches(s);
+            default:
+                throw new AssertionError("Unknown enum value: " + plan.engine());
+        }
+    }
+
+    /** Checks if any substring of s matches the pattern. */
+    public boolean containsMatch(String s) {
+        switch (plan.engine()) {
+            // Anchored at both ends, any match is the whole input
+            case ONE_PASS: return onePass.matches(s);
+            case FULL_DFA: return fullDfa.containsMatch(s);
+            case BIT_PARALLEL: return bitParallel.containsMatch(s);
+            case LAZY_DFA: return lazyDfa.containsMatch(s);
+            case BACKTRACKING: return backtracking.find(s).hasMatch;
+            default:
+                throw new AssertionError("Unknown enum value: " + plan.engine());
+        }
+    }
+}
@@ -11,40 +11,50 @@ public class RAst {
     public static final Long UNBOUND = Long.MAX_VALUE;
 
     public final RAstType type;
-    public final Set<Character> chars;
+    public final CharClass chars;
     public final List<RAst> exprs;
-    public static int nodes;
     // Repeat from to, both inclusive
     public final long repeatMin;
     public final long repeatMax;
-    private int Degree = 0;
     private boolean isAncestorNode;
-    private static int ID = 1;
+    // Ids are dense (0 to nodeCount-1) within a single numbered pattern,
+    // see numbered(). Nodes created by the factory methods have no id.
+    public static final int NO_ID = -1;
     public final int id;
-    private static int inDegree;
+    // Number of nodes in the pattern, set only on a numbered root
+    private final int nodeCount;
     public RAst(RAstType type,
-                Set<Character> chars,
+                CharClass chars,
                 List<RAst> exprs,
                 long repeatMin,
                 long repeatMax) {
+        this(type, chars, exprs, repeatMin, repeatMax, NO_ID, 0);
+    }
+
+    private RAst(RAstType type,
+                 CharClass chars,
+                 List<RAst> exprs,
+                 long repeatMin,
+                 long repeatMax,
+                 int id,
+                 int nodeCount) {
         this.type = type;
         this.chars = chars;
         this.exprs = exprs;
         this.repeatMin = repeatMin;
         this.repeatMax = repeatMax;
-        this.id = ID++;
-        this.inDegree = Degree;
+        this.id = id;
+        this.nodeCount = nodeCount;
         if(this.type == RAstType.REPEAT){
             setAncestor();
             for (int i = 0; i < this.exprs.size(); i++){
                 this.exprs.get(i).setAncestor();
             }
         }
-        nodes = this.id;
     }
 
     public RAst(RAstType type,
-                Set<Character> chars) {
+                CharClass chars) {
         this(type,
              chars,
              Collections.emptyList(),
@@ -54,7 +64,7 @@ public class RAst {
     public RAst(RAstType type,
                 List<RAst> exprs) {
         this(type,
-             Collections.emptySet(),
+             CharClass.EMPTY,
              exprs,
              -1, -1);
     }
@@ -73,17 +83,9 @@ public class RAst {
 
         switch (type) {
             case GROUP:
-                if (chars.size() == 1) {
-                    tmp = chars
-                            .iterator().next()
-                            .toString();
-                }
-                else {
-                    tmp = chars.stream()
-                        .sorted()
-                        .map(Object::toString)
-                        .collect(joining("", "[", "]"));
-                }
+                tmp = (chars.size() == 1)
+                        ? chars.toString()
+                        : "[" + chars + "]";
                 break;
 
             case NEGATED_GROUP:
@@ -92,10 +94,7 @@ public class RAst {
                     tmp = ".";
                 }
                 else {
-                    tmp = chars.stream()
-                            .sorted()
-                            .map(Object::toString)
-                            .collect(joining("", "[^", "]"));
+                    tmp = "[^" + chars + "]";
                 }
                 break;
 
@@ -158,16 +157,24 @@ public class RAst {
     }
 
     public static RAst group(char... chars) {
-        return new RAst(RAstType.GROUP, toSet(chars));
+        return group(CharClass.of(chars));
+    }
+
+    public static RAst group(CharClass chars) {
+        return new RAst(RAstType.GROUP, chars);
     }
 
     public static RAst invGroup(char... chars) {
-        return new RAst(RAstType.NEGATED_GROUP, toSet(chars));
+        return invGroup(CharClass.of(chars));
+    }
+
+    public static RAst invGroup(CharClass chars) {
+        return new RAst(RAstType.NEGATED_GROUP, chars);
     }
 
     public static RAst any() {
         // We represent . as inverted empty group.
-        return new RAst(RAstType.NEGATED_GROUP, Collections.emptySet());
+        return new RAst(RAstType.NEGATED_GROUP, CharClass.EMPTY);
     }
 
     public static RAst concat(RAst... exprs) {
@@ -197,7 +204,7 @@ public class RAst {
     public static RAst repeat(RAst expr, long min, long max) {
         return new RAst(
                 RAstType.REPEAT,
-                emptySet(),
+                CharClass.EMPTY,
                 singletonList(expr),
                 min, max);
     }
@@ -205,7 +212,7 @@ public class RAst {
     public static RAst atBeginning() {
         return new RAst(
                 RAstType.AT_BEGINNING,
-                emptySet(),
+                CharClass.EMPTY,
                 emptyList(),
                 -1, -1);
     }
@@ -213,7 +220,7 @@ public class RAst {
     public static RAst atEnd() {
         return new RAst(
                 RAstType.AT_END,
-                emptySet(),
+                CharClass.EMPTY,
                 emptyList(),
                 -1, -1);
     }
@@ -227,16 +234,6 @@ public class RAst {
                 atEnd());
     }
 
-    private static Set<Character> toSet(char[] chars) {
-        Set<Character> set = new HashSet<>();
-
-        for(char c: chars) {
-            set.add(c);
-        }
-
-        return set;
-    }
-
 //     checking if string immediately follows
 //     send no match if it does not, else nothing
     public static RAst posLookAhead(RAst... expr){
@@ -253,14 +250,50 @@ public class RAst {
         return this.id;
     }
 
+    public boolean isNumbered() {
+        return nodeCount > 0;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /** Returns a copy of the pattern with ids assigned densely from 0
+     * to nodeCount()-1 in pre-order, so memo tables can be sized by the
+     * pattern's own node count. Nodes shared within the pattern (e.g. by
+     * backreferences) stay shared and get a single id.
+     * The original tree is not modified.
+     */
+    public static RAst numbered(RAst root) {
+        if (root.isNumbered()) return root;
 
-    public int getInDegree() {
-        return this.inDegree;
+        Map<RAst, RAst> copies = new IdentityHashMap<>();
+        int[] nextId = { 0 };
+        return numberedCopy(root, copies, nextId, true);
     }
-    public void setDegree(int deg){
-        this.inDegree = deg;
+
+    private static RAst numberedCopy(RAst ast,
+                                     Map<RAst, RAst> copies,
+                                     int[] nextId,
+                                     boolean isRoot) {
+        RAst copy = copies.get(ast);
+        if (copy != null) return copy;
+
+        int id = nextId[0]++;
+        List<RAst> exprs = new ArrayList<>(ast.exprs.size());
+        for (RAst child : ast.exprs) {
+            exprs.add(numberedCopy(child, copies, nextId, false));
+        }
+
+        copy = new RAst(ast.type, ast.chars,
+                unmodifiableList(exprs),
+                ast.repeatMin, ast.repeatMax,
+                id, isRoot ? nextId[0] : 0);
+        copies.put(ast, copy);
+        return copy;
     }
 
+
     public boolean isAncestorNode(){
         return this.isAncestorNode;
     }
@@ -268,22 +301,95 @@ public class RAst {
         this.isAncestorNode = true;
     }
 
-    public static void calcInDegree(RAst regexs) {
+    /** Computes in-degrees of node entry vertices in the NFA equivalent
+     * of a numbered pattern, the result is indexed by node id.
+     * A repeat body is entered from outside the loop and from the
+     * back-edge of every way its previous iteration can end. A node
+     * following an alternative is entered from the end of every branch,
+     * one following r? also by the edge skipping r.
+     * Both rules are applied at every nesting depth.
+     */
+    public static int[] calcInDegree(RAst regex) {
+        if (!regex.isNumbered()) {
+            throw new IllegalArgumentException(
+                    "In-degrees can only be computed for a numbered pattern.");
+        }
 
-        for (int i = 0; i < regexs.exprs.size(); i++) {
-            RAst currExpr = regexs.exprs.get(i);
-            if (currExpr.type == RAstType.REPEAT) {
-                currExpr.setDegree(2);
-                if(i != 0){
-                    for(RAst rast : regexs.exprs.get(i-1).exprs){
-                        if(rast.type == RAstType.ALTERNATIVE){
-                            currExpr.setDegree(2);
-                        }
-                    }
+        int[] inDegree = new int[regex.nodeCount()];
+        calcInDegree(regex, 1, inDegree);
+        return inDegree;
+    }
+
+    private static void calcInDegree(RAst ast, int entryEdges, int[] inDegree) {
+        // Shared nodes (backreferences) sum edges over all their uses
+        inDegree[ast.getID()] += entryEdges;
+
+        switch (ast.type) {
+            case CONCAT: {
+                int edges = entryEdges;
+                for (RAst e : ast.exprs) {
+                    calcInDegree(e, edges, inDegree);
+                    edges = exitEdges(e);
+                }
+                break;
+            }
+
+            case REPEAT: {
+                // Loop entry plus back-edges from the end of the body,
+                // r? has no back-edge
+                int backEdges = (ast.repeatMax > 1)
+                        ? exitEdges(ast.headExpr())
+                        : 0;
+                calcInDegree(ast.headExpr(), entryEdges + backEdges, inDegree);
+                break;
+            }
+
+            case ALTERNATIVE:
+            case POSLOOKAHEAD:
+            case NEGLOOKAHEAD:
+                // Each branch is entered once from the split
+                for (RAst e : ast.exprs) {
+                    calcInDegree(e, 1, inDegree);
+                }
+                break;
+
+            default:
+                // Leaf nodes
+                break;
+        }
+    }
+
+    // Number of distinct edges leaving the end of ast
+    private static int exitEdges(RAst ast) {
+        switch (ast.type) {
+            case CONCAT:
+                return ast.exprs.isEmpty()
+                        ? 1
+                        : exitEdges(ast.exprs.get(ast.exprs.size() - 1));
+
+            case ALTERNATIVE: {
+                int edges = 0;
+                for (RAst e : ast.exprs) {
+                    edges += exitEdges(e);
                 }
+                return edges;
             }
+
+            case REPEAT:
+                // r? is left from the end of r and by the edge skipping
+                // it, other repeats via the loop decision.
+                if (ast.repeatMax == 1) {
+                    int edges = exitEdges(ast.headExpr());
+                    return (ast.repeatMin == 0) ? edges + 1 : edges;
+                }
+                return 1;
+
+            default:
+                // Leaves and lookaheads leave via a single vertex.
+                return 1;
         }
     }
+
     public static int maxChild(RAst regex){
         int childSize = 0;
         for(int i = 0; i < regex.exprs.size(); i++){
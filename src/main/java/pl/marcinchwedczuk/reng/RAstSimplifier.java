@@ -0,0 +1,157 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites a pattern into an equivalent one with fewer nodes before it
+ * is compiled. Every rewrite keeps the leftmost-first match, not only
+ * the matched language:
+ * <ul>
+ *     <li>nested CONCAT and ALTERNATIVE nodes are flattened,
+ *     a concatenation or an alternative of a single expression
+ *     becomes that expression</li>
+ *     <li>adjacent single character alternatives are merged into one
+ *     GROUP, e.g. a|b|c into [abc], they consume the same single char
+ *     and continue the same way so their order does not matter</li>
+ *     <li>nested stars of a single character, e.g. (a*)* or (a+)*,
+ *     become one repeat, r{1} becomes r</li>
+ * </ul>
+ * Branches of lookaheads are simplified but not merged, see
+ * BacktrackingMatcher for their semantics.
+ * Nodes shared within the pattern (backreferences) stay shared.
+ * Runs of single characters are fused into literals later,
+ * by MatcherTree.
+ */
+public final class RAstSimplifier {
+    private final Map<RAst, RAst> simplified = new IdentityHashMap<>();
+
+    private RAstSimplifier() { }
+
+    public static RAst simplify(RAst regex) {
+        return new RAstSimplifier().visit(regex);
+    }
+
+    private RAst visit(RAst ast) {
+        RAst result = simplified.get(ast);
+        if (result == null) {
+            result = simplifyNode(ast);
+            simplified.put(ast, result);
+        }
+        return result;
+    }
+
+    private RAst simplifyNode(RAst ast) {
+        switch (ast.type) {
+            case GROUP:
+            case NEGATED_GROUP:
+            case AT_BEGINNING:
+            case AT_END:
+                return ast;
+
+            case CONCAT: {
+                List<RAst> exprs = flatten(RAstType.CONCAT, ast.exprs);
+                return (exprs.size() == 1)
+                        ? exprs.get(0)
+                        : new RAst(RAstType.CONCAT, exprs);
+            }
+
+            case ALTERNATIVE: {
+                List<RAst> exprs = mergeGroups(flatten(RAstType.ALTERNATIVE, ast.exprs));
+                return (exprs.size() == 1)
+                        ? exprs.get(0)
+                        : new RAst(RAstType.ALTERNATIVE, exprs);
+            }
+
+            case REPEAT:
+                return simplifyRepeat(ast);
+
+            case POSLOOKAHEAD:
+            case NEGLOOKAHEAD: {
+                List<RAst> exprs = new ArrayList<>(ast.exprs.size());
+                for (RAst e : ast.exprs) {
+                    exprs.add(visit(e));
+                }
+                return new RAst(ast.type, exprs);
+            }
+
+            default:
+                throw new AssertionError("Unknown enum value: " + ast.type);
+        }
+    }
+
+    // Splices simplified children of the same type into the parent
+    private List<RAst> flatten(RAstType type, List<RAst> children) {
+        List<RAst> exprs = new ArrayList<>(children.size());
+        for (RAst child : children) {
+            RAst e = visit(child);
+            if (e.type == type) {
+                exprs.addAll(e.exprs);
+            } else {
+                exprs.add(e);
+            }
+        }
+        return exprs;
+    }
+
+    // Only adjacent groups are merged, a longer alternative between
+    // them could match the same first char and must be tried first
+    private static List<RAst> mergeGroups(List<RAst> alternatives) {
+        List<RAst> merged = new ArrayList<>(alternatives.size());
+
+        int i = 0;
+        while (i < alternatives.size()) {
+            RAst e = alternatives.get(i);
+            int j = i + 1;
+            while (j < alternatives.size() && alternatives.get(j).type == RAstType.GROUP) {
+                j++;
+            }
+
+            if (e.type != RAstType.GROUP || j == i + 1) {
+                merged.add(e);
+                i++;
+                continue;
+            }
+
+            CharClass.Builder chars = CharClass.builder();
+            for (int k = i; k < j; k++) {
+                chars.addAll(alternatives.get(k).chars);
+            }
+            merged.add(RAst.group(chars.build()));
+            i = j;
+        }
+        return merged;
+    }
+
+    private RAst simplifyRepeat(RAst ast) {
+        RAst body = visit(ast.headExpr());
+
+        if (ast.repeatMin == 1 && ast.repeatMax == 1) {
+            return body;
+        }
+
+        // (c*)*, (c+)*, (c*)+ and (c+)+ try the same numbers of c,
+        // longest first. For longer bodies the order can differ.
+        if (body.type == RAstType.REPEAT
+                && isStarOrPlus(ast) && isStarOrPlus(body)
+                && isSingleChar(body.headExpr())) {
+            long min = Math.min(ast.repeatMin, body.repeatMin);
+            return RAst.repeat(body.headExpr(), min, RAst.UNBOUND);
+        }
+
+        if (body == ast.headExpr()) {
+            return ast;
+        }
+        return RAst.repeat(body, ast.repeatMin, ast.repeatMax);
+    }
+
+    private static boolean isStarOrPlus(RAst repeat) {
+        return repeat.repeatMin <= 1 && repeat.repeatMax == RAst.UNBOUND;
+    }
+
+    private static boolean isSingleChar(RAst ast) {
+        return ast.type == RAstType.GROUP || ast.type == RAstType.NEGATED_GROUP;
+    }
+}
@@ -0,0 +1,127 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes counted repeats out so their bodies can be memoised.
+ * The body of r{N,M} is followed by a different continuation on every
+ * iteration, so (node, position) does not determine whether it
+ * matches. r{N,M} becomes N copies of r followed by M-N nested
+ * optional copies, e.g. rr(r(r)?)? for r{2,4}, and r{N,} becomes
+ * N copies followed by r*. Every copy has its own nodes with a single
+ * continuation each.
+ * Only repeats of bodies that cannot match the empty string are
+ * unrolled, for them both forms try the same iterations in the same
+ * order. Repeats above MAX_UNROLLED_NODES stay as they are, CompiledPattern
+ * does not memoise their bodies.
+ */
+final class RepeatUnroller {
+    // Nodes of all copies of a single repeat
+    static final long MAX_UNROLLED_NODES = 1000;
+
+    private final Map<RAst, RAst> unrolled = new IdentityHashMap<>();
+
+    private RepeatUnroller() { }
+
+    static RAst unroll(RAst regex) {
+        return new RepeatUnroller().visit(regex);
+    }
+
+    /** r{N,M} other than r? and r{1}, and r{N,} with N > 1. */
+    static boolean isCounted(RAst ast) {
+        return ast.type == RAstType.REPEAT &&
+                (ast.repeatMin > 1 ||
+                 (ast.repeatMax != RAst.UNBOUND && ast.repeatMax > 1));
+    }
+
+    private RAst visit(RAst ast) {
+        RAst result = unrolled.get(ast);
+        if (result == null) {
+            result = unrollNode(ast);
+            unrolled.put(ast, result);
+        }
+        return result;
+    }
+
+    private RAst unrollNode(RAst ast) {
+        if (ast.exprs.isEmpty()) return ast;
+
+        List<RAst> exprs = new ArrayList<>(ast.exprs.size());
+        boolean changed = false;
+        for (RAst e : ast.exprs) {
+            RAst u = visit(e);
+            changed |= (u != e);
+            exprs.add(u);
+        }
+
+        if (!isCounted(ast)) {
+            return changed ? copyWith(ast, exprs) : ast;
+        }
+
+        RAst body = exprs.get(0);
+        long copies = (ast.repeatMax == RAst.UNBOUND)
+                ? ast.repeatMin + 1
+                : ast.repeatMax;
+        if (FirstChars.of(body).isNullable()
+                || copies * countNodes(body) > MAX_UNROLLED_NODES) {
+            return changed ? copyWith(ast, exprs) : ast;
+        }
+
+        List<RAst> parts = new ArrayList<>();
+        for (long i = 0; i < ast.repeatMin; i++) {
+            parts.add(copy(body));
+        }
+
+        if (ast.repeatMax == RAst.UNBOUND) {
+            parts.add(RAst.star(copy(body)));
+        } else if (ast.repeatMax > ast.repeatMin) {
+            RAst optional = RAst.repeat(copy(body), 0, 1);
+            for (long i = ast.repeatMin + 1; i < ast.repeatMax; i++) {
+                optional = RAst.repeat(RAst.concat(copy(body), optional), 0, 1);
+            }
+            parts.add(optional);
+        }
+
+        return (parts.size() == 1)
+                ? parts.get(0)
+                : new RAst(RAstType.CONCAT, parts);
+    }
+
+    private static RAst copyWith(RAst ast, List<RAst> exprs) {
+        return new RAst(ast.type, ast.chars, exprs, ast.repeatMin, ast.repeatMax);
+    }
+
+    // Nodes shared within the copy (backreferences) stay shared
+    private static RAst copy(RAst ast) {
+        return copy(ast, new IdentityHashMap<>());
+    }
+
+    private static RAst copy(RAst ast, Map<RAst, RAst> copies) {
+        RAst copy = copies.get(ast);
+        if (copy != null) return copy;
+
+        List<RAst> exprs = new ArrayList<>(ast.exprs.size());
+        for (RAst e : ast.exprs) {
+            exprs.add(copy(e, copies));
+        }
+        copy = copyWith(ast, exprs);
+        copies.put(ast, copy);
+        return copy;
+    }
+
+    private static long countNodes(RAst regex) {
+        Set<RAst> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<RAst> stack = new ArrayList<>();
+        stack.add(regex);
+        while (!stack.isEmpty()) {
+            RAst ast = stack.remove(stack.size() - 1);
+            if (seen.add(ast)) stack.addAll(ast.exprs);
+        }
+        return seen.size();
+    }
+}
@@ -0,0 +1,247 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Literals at least one of which occurs in every match of a pattern,
+ * e.g. @gmail.com for .*@gmail\.com or foo and bar for x(foo|bar)+.
+ * Input containing none of them cannot match, which is checked with
+ * a substring search before any matcher state is allocated.
+ * Patterns that can match without any fixed text get no literals and
+ * reject nothing.
+ */
+final class RequiredLiterals {
+    // Larger sets are not worth searching for
+    static final int MAX_LITERALS = 16;
+    static final int MAX_LENGTH = 64;
+
+    private static final RequiredLiterals NONE =
+            new RequiredLiterals(Collections.emptySet());
+
+    private final Set<String> literals;
+    private final String[] search;
+
+    private RequiredLiterals(Set<String> literals) {
+        this.literals = Collections.unmodifiableSet(literals);
+        this.search = literals.toArray(new String[0]);
+    }
+
+    static RequiredLiterals of(RAst regex) {
+        Info root = new Analysis().visit(regex);
+        Set<String> best = better(root.exact, root.required);
+        return (best == null) ? NONE : new RequiredLiterals(best);
+    }
+
+    /** Empty when the pattern requires no literal. */
+    Set<String> literals() {
+        return literals;
+    }
+
+    /** False when s contains none of the literals, so it cannot match. */
+    boolean mayMatch(String s) {
+        if (search.length == 0) return true;
+
+        for (String literal : search) {
+            if (s.indexOf(literal) >= 0) return true;
+        }
+        return false;
+    }
+
+    // What is known about the strings a node matches
+    private static final class Info {
+        // Every string the node matches, null when there are too many
+        final Set<String> exact;
+        // Every match contains one of these, null when unknown
+        final Set<String> required;
+
+        Info(Set<String> exact, Set<String> required) {
+            this.exact = exact;
+            this.required = required;
+        }
+    }
+
+    private static final class Analysis {
+        // Nodes shared by backreferences are analysed once
+        private final Map<RAst, Info> infos = new IdentityHashMap<>();
+
+        Info visit(RAst ast) {
+            Info info = infos.get(ast);
+            if (info == null) {
+                info = analyse(ast);
+                infos.put(ast, info);
+            }
+            return info;
+        }
+
+        private Info analyse(RAst ast) {
+            switch (ast.type) {
+                case GROUP: {
+                    if (ast.chars.size() > MAX_LITERALS) return new Info(null, null);
+                    Set<String> chars = new TreeSet<>();
+                    for (char c : ast.chars.toString().toCharArray()) {
+                        chars.add(String.valueOf(c));
+                    }
+                    return new Info(chars, null);
+                }
+
+                // Lookahead branches run with the continuation after
+                // them and consume input, see BacktrackingMatcher,
+                // so they end the literal runs around them
+                case NEGATED_GROUP:
+                case POSLOOKAHEAD:
+                case NEGLOOKAHEAD:
+                    return new Info(null, null);
+
+                // Match only the empty string
+                case AT_BEGINNING:
+                case AT_END:
+                    return new Info(Collections.singleton(""), null);
+
+                case CONCAT:
+                    return concat(ast);
+
+                case ALTERNATIVE:
+                    return alternative(ast);
+
+                case REPEAT:
+                    return repeat(ast);
+
+                default:
+                    throw new AssertionError("Unknown enum value: " + ast.type);
+            }
+        }
+
+        // Adjacent exact children are joined into longer literals,
+        // the most selective run or required set is kept
+        private Info concat(RAst ast) {
+            Set<String> run = Collections.singleton("");
+            Set<String> best = null;
+            boolean allExact = true;
+
+            for (RAst e : ast.exprs) {
+                Info info = visit(e);
+
+                if (info.exact != null) {
+                    Set<String> joined = cross(run, info.exact);
+                    if (joined == null) {
+                        allExact = false;
+                        best = better(best, run);
+                        run = info.exact;
+                    } else {
+                        run = joined;
+                    }
+                } else {
+                    allExact = false;
+                    best = better(best, run);
+                    best = better(best, info.required);
+                    run = Collections.singleton("");
+                }
+            }
+
+            best = better(best, run);
+            return new Info(allExact ? run : null, best);
+        }
+
+        private Info alternative(RAst ast) {
+            Set<String> exact = new TreeSet<>();
+            Set<String> required = new TreeSet<>();
+
+            for (RAst e : ast.exprs) {
+                Info info = visit(e);
+
+                if (exact != null && info.exact != null) {
+                    exact.addAll(info.exact);
+                    if (exact.size() > MAX_LITERALS) exact = null;
+                } else {
+                    exact = null;
+                }
+
+                // Every branch has to contribute, otherwise a match
+                // through it may contain none of the literals
+                Set<String> branch = better(info.exact, info.required);
+                if (required != null && branch != null) {
+                    required.addAll(branch);
+                    if (required.size() > MAX_LITERALS) required = null;
+                } else {
+                    required = null;
+                }
+            }
+
+            return new Info(exact, required);
+        }
+
+        private Info repeat(RAst ast) {
+            if (ast.repeatMax == 0) {
+                return new Info(Collections.singleton(""), null);
+            }
+            if (ast.repeatMin == 0) {
+                return new Info(null, null);
+            }
+
+            Info body = visit(ast.headExpr());
+
+            // The first min iterations always follow each other,
+            // as many of them as fit into the limits are joined
+            Set<String> first = body.exact;
+            boolean complete = (first != null);
+            for (long i = 1; i < ast.repeatMin && first != null; i++) {
+                Set<String> longer = cross(first, body.exact);
+                if (longer == null) {
+                    complete = false;
+                    break;
+                }
+                if (longer.equals(first)) break;
+                first = longer;
+            }
+
+            Set<String> exact = (complete && ast.repeatMin == ast.repeatMax) ? first : null;
+            Set<String> required = better(first, better(body.exact, body.required));
+            return new Info(exact, required);
+        }
+    }
+
+    // All concatenations of a string from a and one from b,
+    // null when there would be too many or too long ones
+    private static Set<String> cross(Set<String> a, Set<String> b) {
+        if ((long) a.size() * b.size() > MAX_LITERALS) return null;
+
+        Set<String> result = new TreeSet<>();
+        for (String x : a) {
+            for (String y : b) {
+                if (x.length() + y.length() > MAX_LENGTH) return null;
+                result.add(x + y);
+            }
+        }
+        return result;
+    }
+
+    // The set that is rarer to find in the input: longer shortest
+    // literal first, then fewer literals. Null or a set with the empty
+    // string rejects nothing.
+    private static Set<String> better(Set<String> a, Set<String> b) {
+        if (isUseless(a)) return isUseless(b) ? null : b;
+        if (isUseless(b)) return a;
+
+        int lengthA = shortest(a), lengthB = shortest(b);
+        if (lengthA != lengthB) {
+            return (lengthA > lengthB) ? a : b;
+        }
+        return (a.size() <= b.size()) ? a : b;
+    }
+
+    private static boolean isUseless(Set<String> literals) {
+        return literals == null || literals.isEmpty() || literals.contains("");
+    }
+
+    private static int shortest(Set<String> literals) {
+        int min = Integer.MAX_VALUE;
+        for (String literal : literals) {
+            min = Math.min(min, literal.length());
+        }
+        return min;
+    }
+}
@@ -0,0 +1,367 @@
+package pl.marcinchwedczuk.reng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Finds the leftmost match without restarting the matcher at every
+ * start position. A forward automaton scans the input once and reports
+ * where the match ends, then an automaton of the reversed pattern runs
+ * backwards from there and reports where it starts. Both passes are
+ * linear in the input length.
+ *
+ * The forward automaton keeps NFA threads in priority order, the same
+ * order PikeVmMatcher uses, and stops starting new threads once
+ * something matched, so it ends where the BacktrackingMatcher would.
+ * No match starts before the leftmost one, so the leftmost start of
+ * the reversed pattern ending there is the start of the match.
+ * The forward states are cached in the matcher and shared by the calls
+ * made on it, a call that finds the cache in use by another thread
+ * builds the states it needs in a cache of its own.
+ * Lookaheads are not supported.
+ */
+public final class ReverseSearchMatcher {
+    // Forward states in a cache, the cache is cleared when full
+    static final int MAX_CACHED_STATES = 10_000;
+
+    // Transition not computed yet
+    private static final int UNKNOWN = -1;
+
+    private final NfaProgram forward;
+    private final NfaProgram reverse;
+    private final AlphabetPartition alphabet;
+    private final ForwardCache forwardCache;
+
+    private ReverseSearchMatcher(NfaProgram forward, NfaProgram reverse) {
+        this.forward = forward;
+        this.reverse = reverse;
+        this.alphabet = AlphabetPartition.of(forward);
+        this.forwardCache = new ForwardCache();
+    }
+
+    /** Throws IllegalArgumentException for patterns with lookaheads,
+     * see NfaProgram.supports(RAst).
+     */
+    public static ReverseSearchMatcher compile(RAst regex) {
+        return new ReverseSearchMatcher(
+                NfaProgram.compile(regex),
+                NfaProgram.compile(reversed(regex)));
+    }
+
+    /** Finds the leftmost match in s. */
+    public Match find(String s) {
+        int end;
+        if (forwardCache.lock.tryLock()) {
+            try {
+                end = forwardCache.matchEnd(s);
+            } finally {
+                forwardCache.lock.unlock();
+            }
+        } else {
+            end = new ForwardCache().matchEnd(s);
+        }
+        if (end < 0) {
+            return new Match(s, false, -1, -1);
+        }
+        return new Match(s, true, matchStart(s, end), end);
+    }
+
+    // Runs the reversed pattern from end towards the beginning of s,
+    // the last position where it matches is the leftmost start
+    private int matchStart(String s, int end) {
+        NfaClosure closure = new NfaClosure(reverse);
+        // The beginning of the reversed input is the end of s
+        int[] state = closure.start(end == s.length());
+        int start = -1;
+
+        for (int pos = end; ; pos--) {
+            boolean matches = (pos == 0)
+                    ? closure.acceptsAtEnd(state, pos == end && end == s.length())
+                    : closure.isMatch(state);
+            if (matches) start = pos;
+
+            if (pos == 0 || state.length == 0) break;
+            state = closure.step(state, s.charAt(pos - 1), false);
+        }
+
+        if (start < 0) {
+            throw new AssertionError("Reverse scan found no start for a match ending at " + end);
+        }
+        return start;
+    }
+
+    /** Returns the pattern matching the reversed strings of regex:
+     * concatenations are reversed and anchors swapped. Nodes shared
+     * within the pattern (backreferences) stay shared.
+     */
+    static RAst reversed(RAst regex) {
+        return reversed(regex, new IdentityHashMap<>());
+    }
+
+    private static RAst reversed(RAst ast, Map<RAst, RAst> copies) {
+        RAst copy = copies.get(ast);
+        if (copy != null) return copy;
+
+        switch (ast.type) {
+            case GROUP:
+            case NEGATED_GROUP:
+                copy = new RAst(ast.type, ast.chars);
+                break;
+
+            case AT_BEGINNING:
+                copy = RAst.atEnd();
+                break;
+
+            case AT_END:
+                copy = RAst.atBeginning();
+                break;
+
+            case CONCAT: {
+                List<RAst> exprs = new ArrayList<>(ast.exprs.size());
+                for (int i = ast.exprs.size() - 1; i >= 0; i--) {
+                    exprs.add(reversed(ast.exprs.get(i), copies));
+                }
+                copy = new RAst(RAstType.CONCAT, exprs);
+                break;
+            }
+
+            case ALTERNATIVE: {
+                List<RAst> exprs = new ArrayList<>(ast.exprs.size());
+                for (RAst e : ast.exprs) {
+                    exprs.add(reversed(e, copies));
+                }
+                copy = new RAst(RAstType.ALTERNATIVE, exprs);
+                break;
+            }
+
+            case REPEAT:
+                copy = RAst.repeat(reversed(ast.headExpr(), copies),
+                        ast.repeatMin, ast.repeatMax);
+                break;
+
+            default:
+                throw new IllegalArgumentException(
+                        "Lookaheads cannot be reversed.");
+        }
+
+        copies.put(ast, copy);
+        return copy;
+    }
+
+    // Forward DFA whose states are NFA threads in priority order,
+    // built on demand. Threads after a MATCH have lower priority and
+    // are dropped, like in PikeVmMatcher.
+    private final class ForwardCache {
+        // Held by the call using the shared cache
+        final ReentrantLock lock = new ReentrantLock();
+
+        private final int classCount = alphabet.classCount();
+
+        private final Map<NfaClosure.StateKey, Integer> ids = new HashMap<>();
+        private final List<int[]> threads = new ArrayList<>();
+        // New threads are started at every position until something matched
+        private final List<Boolean> restarting = new ArrayList<>();
+        private int[] transitions = new int[16 * classCount];
+
+        // Scratch space of the closure, states as in PikeVmMatcher
+        private final int depth = forward.loopDepth;
+        private final boolean[] seen = new boolean[forward.size() << depth];
+        private final boolean[] listed = new boolean[forward.size()];
+        private final int[] stack = new int[2 * seen.length + 1];
+        private final int[] list = new int[forward.size()];
+        private int listSize;
+
+        private int startState = -1;
+
+        // Returns -1 when there is no match
+        int matchEnd(String s) {
+            if (startState < 0) {
+                startState = startState();
+            }
+
+            int state = startState;
+            int end = -1;
+            for (int pos = 0; pos < s.length(); pos++) {
+                if (hasMatch(state)) end = pos;
+                if (isDead(state)) return end;
+                state = next(state, alphabet.classOf(s.charAt(pos)));
+            }
+
+            if (matchesAtEnd(state, s.isEmpty())) end = s.length();
+            return end;
+        }
+
+        private boolean hasMatch(int state) {
+            int[] t = threads.get(state);
+            return t.length > 0 && forward.op[t[t.length - 1]] == NfaProgram.MATCH;
+        }
+
+        private boolean isDead(int state) {
+            return threads.get(state).length == 0 && !restarting.get(state);
+        }
+
+        // Any thread that reaches MATCH when the input ends here
+        private boolean matchesAtEnd(int state, boolean atBeginning) {
+            begin();
+            for (int pc : threads.get(state)) {
+                add(pc, atBeginning, true);
+            }
+            for (int i = 0; i < listSize; i++) {
+                if (forward.op[list[i]] == NfaProgram.MATCH) return true;
+            }
+            return false;
+        }
+
+        private int startState() {
+            begin();
+            add(0, true, false);
+            return stateOf(true);
+        }
+
+        private int next(int state, int charClass) {
+            int next = transitions[state * classCount + charClass];
+            if (next != UNKNOWN) return next;
+
+            int[] from = threads.get(state);
+            boolean restart = restarting.get(state) && !hasMatch(state);
+            char c = alphabet.representative(charClass);
+
+            begin();
+            for (int pc : from) {
+                int op = forward.op[pc];
+                if ((op == NfaProgram.CHAR || op == NfaProgram.NOT_CHAR)
+                        && forward.accepts(pc, c)) {
+                    add(pc + 1, false, false);
+                }
+            }
+            // New start has the lowest priority
+            if (restart) add(0, false, false);
+
+            // Only a state that is not cached yet can need a clear
+            Integer cached = ids.get(keyOf(restart));
+            if (cached != null) {
+                next = cached;
+            } else {
+                if (ids.size() == MAX_CACHED_STATES) {
+                    ids.clear();
+                    threads.clear();
+                    restarting.clear();
+                    int[] pending = Arrays.copyOf(list, listSize);
+                    startState = startState();
+                    System.arraycopy(pending, 0, list, 0, pending.length);
+                    listSize = pending.length;
+                    state = -1;
+                }
+                next = stateOf(restart);
+            }
+            if (state >= 0) {
+                transitions[state * classCount + charClass] = next;
+            }
+            return next;
+        }
+
+        private void begin() {
+            listSize = 0;
+            Arrays.fill(seen, false);
+            Arrays.fill(listed, false);
+        }
+
+        // Appends threads reachable from pc without consuming input,
+        // in priority order, nothing is added after MATCH. Empty loop
+        // iterations end the loop, see PikeVmMatcher.addThread().
+        private void add(int pc, boolean atBeginning, boolean atEnd) {
+            if (listSize > 0 && forward.op[list[listSize - 1]] == NfaProgram.MATCH) return;
+
+            int top = 0;
+            stack[top++] = pc << depth;
+
+            while (top > 0) {
+                int state = stack[--top];
+                if (seen[state]) continue;
+                seen[state] = true;
+
+                pc = state >>> depth;
+                int entered = state - (pc << depth);
+                int loop = forward.loop[pc];
+                int bit = (loop >= 0) ? 1 << forward.loopLevel[loop] : 0;
+
+                switch (forward.op[pc]) {
+                    case NfaProgram.JMP:
+                        if ((entered & bit) != 0) {
+                            stack[top++] = (forward.y[pc] << depth) | (entered & ~bit);
+                        } else {
+                            stack[top++] = (forward.x[pc] << depth) | entered;
+                        }
+                        break;
+
+                    case NfaProgram.SPLIT:
+                        // y is pushed first so x is followed first
+                        stack[top++] = (forward.y[pc] << depth) | (entered & ~bit);
+                        stack[top++] = (forward.x[pc] << depth) | entered | bit;
+                        break;
+
+                    case NfaProgram.AT_BEGINNING:
+                        if (atBeginning) stack[top++] = ((pc + 1) << depth) | entered;
+                        break;
+
+                    case NfaProgram.AT_END:
+                        if (atEnd) stack[top++] = ((pc + 1) << depth) | entered;
+                        else addToList(pc);
+                        break;
+
+                    case NfaProgram.MATCH:
+                        addToList(pc);
+                        // Threads with lower priority are dropped
+                        return;
+
+                    default:
+                        addToList(pc);
+                        break;
+                }
+            }
+        }
+
+        private void addToList(int pc) {
+            if (listed[pc]) return;
+            listed[pc] = true;
+            list[listSize++] = pc;
+        }
+
+        // Interns the list built by add(), restart tells whether the
+        // state before it was still starting new threads
+        private int stateOf(boolean restart) {
+            NfaClosure.StateKey stateKey = keyOf(restart);
+            Integer id = ids.get(stateKey);
+            if (id != null) return id;
+
+            int state = threads.size();
+            threads.add(Arrays.copyOf(list, listSize));
+            this.restarting.add(isRestarting(restart));
+            ids.put(stateKey, state);
+
+            if (transitions.length < (state + 1) * classCount) {
+                transitions = Arrays.copyOf(transitions, 2 * (state + 1) * classCount);
+            }
+            Arrays.fill(transitions, state * classCount,
+                    (state + 1) * classCount, UNKNOWN);
+            return state;
+        }
+
+        private NfaClosure.StateKey keyOf(boolean restart) {
+            // Last element tells the two kinds of states apart
+            int[] key = Arrays.copyOf(list, listSize + 1);
+            key[listSize] = isRestarting(restart) ? -1 : -2;
+            return new NfaClosure.StateKey(key);
+        }
+
+        private boolean isRestarting(boolean restart) {
+            return restart && !(listSize > 0
+                    && forward.op[list[listSize - 1]] == NfaProgram.MATCH);
+        }
+    }
+}
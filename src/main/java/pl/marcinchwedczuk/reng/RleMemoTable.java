@@ -0,0 +1,264 @@
+package pl.marcinchwedczuk.reng;
+
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Run-length encoded memo table.
+ * For every node we keep a sorted list of runs, a run is a range of
+ * consecutive input positions [start, end) that share the same result.
+ * Backtracking visits positions mostly in order, so the number of runs
+ * stays small and memory is O(nodes * runs) instead of O(nodes * input).
+ * Runs are packed into longs, so rows can live on the heap or off it.
+ * Off-heap rows are carved out of a few large OffHeapWords chunks,
+ * like the cells of OffHeapBitMap, and are freed by close().
+ */
+class RleMemoTable implements MemoTable {
+    private static final int INITIAL_RUNS = 4;
+
+    private Row[] rows;
+    // Null when the rows live on the heap
+    private final OffHeapRuns offHeapRuns;
+
+    public RleMemoTable(int regNodes) {
+        this(regNodes, false);
+    }
+
+    public RleMemoTable(int regNodes, boolean offHeap) {
+        this.rows = new Row[regNodes];
+        this.offHeapRuns = offHeap ? new OffHeapRuns() : null;
+    }
+
+    @Override
+    public boolean isSet(int node, int stringPos) {
+        Row row = row(node);
+        return row != null && row.find(stringPos) >= 0;
+    }
+
+    @Override
+    public boolean isMatch(int node, int stringPos) {
+        Row row = row(node);
+        if (row == null) return false;
+
+        int run = row.find(stringPos);
+        return run >= 0 && row.value(run);
+    }
+
+    @Override
+    public byte lookup(int node, int stringPos) {
+        Row row = row(node);
+        if (row == null) return UNSET;
+
+        int run = row.find(stringPos);
+        if (run < 0) return UNSET;
+        return row.value(run) ? MATCHED : FAILED;
+    }
+
+    @Override
+    public void setValue(int node, int stringPos, boolean match) {
+        rowFor(node).add(stringPos, match);
+    }
+
+    @Override
+    public boolean testAndSetFailed(int node, int stringPos) {
+        return rowFor(node).add(stringPos, false);
+    }
+
+    private Row rowFor(int node) {
+        if (node >= rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(2 * rows.length, node + 1));
+        }
+        if (rows[node] == null) {
+            rows[node] = new Row(offHeapRuns);
+        }
+        return rows[node];
+    }
+
+    @Override
+    public void close() {
+        rows = new Row[0];
+        if (offHeapRuns != null) {
+            offHeapRuns.close();
+        }
+    }
+
+    // Number of runs stored for given node, used by tests
+    int runCount(int node) {
+        Row row = row(node);
+        return row == null ? 0 : row.count;
+    }
+
+    // Number of off-heap chunks holding the rows, used by tests
+    int offHeapChunkCount() {
+        return offHeapRuns == null ? 0 : offHeapRuns.chunks.size();
+    }
+
+    private Row row(int node) {
+        return node < rows.length ? rows[node] : null;
+    }
+
+    private static class Row {
+        // Run i covers positions [start, end), packed as
+        // start << 32 | end << 1 | value
+        private LongBuffer runs;
+        // Null when the row lives on the heap
+        private final OffHeapRuns offHeapRuns;
+        private int count = 0;
+
+        Row(OffHeapRuns offHeapRuns) {
+            this.offHeapRuns = offHeapRuns;
+            this.runs = allocate(INITIAL_RUNS);
+        }
+
+        // Index of the run containing pos or -1
+        int find(int pos) {
+            int run = lastStartingAtOrBefore(pos);
+            return (run >= 0 && pos < end(run)) ? run : -1;
+        }
+
+        boolean value(int run) {
+            return (runs.get(run) & 1L) != 0;
+        }
+
+        // Returns true when pos was set before
+        boolean add(int pos, boolean value) {
+            int left = lastStartingAtOrBefore(pos);
+            if (left >= 0 && pos < end(left)) {
+                // Already set, keep the first value
+                return true;
+            }
+
+            int right = left + 1;
+            boolean joinsLeft = left >= 0 &&
+                    end(left) == pos && value(left) == value;
+            boolean joinsRight = right < count &&
+                    start(right) == pos + 1 && value(right) == value;
+
+            if (joinsLeft && joinsRight) {
+                // pos fills the gap between two runs, merge them
+                runs.put(left, pack(start(left), end(right), value));
+                remove(right);
+            } else if (joinsLeft) {
+                runs.put(left, pack(start(left), pos + 1, value));
+            } else if (joinsRight) {
+                runs.put(right, pack(pos, end(right), value));
+            } else {
+                insert(right, pack(pos, pos + 1, value));
+            }
+            return false;
+        }
+
+        private int start(int run) {
+            return (int) (runs.get(run) >>> 32);
+        }
+
+        private int end(int run) {
+            return (int) ((runs.get(run) & 0xFFFFFFFFL) >>> 1);
+        }
+
+        private static long pack(int start, int end, boolean value) {
+            return ((long) start << 32) | ((long) end << 1) | (value ? 1L : 0L);
+        }
+
+        private int lastStartingAtOrBefore(int pos) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start(mid) <= pos) lo = mid + 1;
+                else hi = mid - 1;
+            }
+            return hi;
+        }
+
+        private void insert(int index, long run) {
+            if (count == runs.capacity()) {
+                grow();
+            }
+            for (int i = count; i > index; i--) {
+                runs.put(i, runs.get(i - 1));
+            }
+            runs.put(index, run);
+            count++;
+        }
+
+        private void remove(int index) {
+            for (int i = index; i < count - 1; i++) {
+                runs.put(i, runs.get(i + 1));
+            }
+            count--;
+        }
+
+        private void grow() {
+            LongBuffer oldRuns = runs;
+
+            runs = allocate(2 * oldRuns.capacity());
+            for (int i = 0; i < count; i++) {
+                runs.put(i, oldRuns.get(i));
+            }
+
+            if (offHeapRuns != null) offHeapRuns.release(oldRuns);
+        }
+
+        private LongBuffer allocate(int capacity) {
+            return (offHeapRuns != null)
+                    ? offHeapRuns.allocate(capacity)
+                    : LongBuffer.allocate(capacity);
+        }
+    }
+
+    // Blocks of runs cut from off-heap chunks. Row capacities are
+    // powers of two, a block left behind by a growing row is reused
+    // by the next row asking for the same capacity.
+    private static final class OffHeapRuns {
+        private static final int FIRST_CHUNK_WORDS = 1 << 12;
+        private static final int MAX_CHUNK_WORDS = 1 << 20;
+
+        private final List<OffHeapWords> chunks = new ArrayList<>();
+        private OffHeapWords chunk = null;
+        private int chunkUsed = 0;
+        private int nextChunkWords = FIRST_CHUNK_WORDS;
+
+        // Indexed by log2 of the block capacity
+        private final List<ArrayDeque<LongBuffer>> freeBlocks = new ArrayList<>();
+
+        LongBuffer allocate(int capacity) {
+            ArrayDeque<LongBuffer> free = freeBlocks(capacity);
+            if (!free.isEmpty()) return free.pop();
+
+            if (chunk == null || chunkUsed + capacity > chunk.size()) {
+                chunk = OffHeapWords.direct(Math.max(capacity, nextChunkWords));
+                chunks.add(chunk);
+                chunkUsed = 0;
+                nextChunkWords = Math.min(2 * nextChunkWords, MAX_CHUNK_WORDS);
+            }
+
+            LongBuffer block = chunk.slice(chunkUsed, capacity);
+            chunkUsed += capacity;
+            return block;
+        }
+
+        void release(LongBuffer block) {
+            freeBlocks(block.capacity()).push(block);
+        }
+
+        void close() {
+            for (OffHeapWords c : chunks) {
+                c.close();
+            }
+            chunks.clear();
+            freeBlocks.clear();
+            chunk = null;
+        }
+
+        private ArrayDeque<LongBuffer> freeBlocks(int capacity) {
+            int sizeClass = Integer.numberOfTrailingZeros(capacity);
+            while (freeBlocks.size() <= sizeClass) {
+                freeBlocks.add(new ArrayDeque<>());
+            }
+            return freeBlocks.get(sizeClass);
+        }
+    }
+}
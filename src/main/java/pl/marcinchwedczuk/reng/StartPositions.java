@@ -0,0 +1,32 @@
+package pl.marcinchwedczuk.reng;
+
+/**
+ * Positions of the input where backtracking matchers try to start
+ * a match. Anchored patterns start only at the beginning, patterns
+ * with a literal prefix where it occurs, see LiteralPrefix, others at
+ * chars that can begin a match, see FirstChars.
+ */
+final class StartPositions {
+    private final LiteralPrefix prefix;
+    private final FirstChars firstChars;
+
+    private StartPositions(LiteralPrefix prefix, FirstChars firstChars) {
+        this.prefix = prefix;
+        this.firstChars = firstChars;
+    }
+
+    static StartPositions of(RAst regex) {
+        return new StartPositions(LiteralPrefix.of(regex), FirstChars.of(regex));
+    }
+
+    /** Returns the first position at or after from where a match
+     * can start, or -1 when there is none.
+     */
+    int next(String s, int from) {
+        // The prefix search would look past the only candidate
+        if (firstChars.isAnchored() || prefix.isEmpty()) {
+            return firstChars.nextCandidate(s, from);
+        }
+        return prefix.nextCandidate(s, from);
+    }
+}
@@ -1,5 +1,6 @@
 package pl.marcinchwedczuk.reng.parser;
 
+import pl.marcinchwedczuk.reng.CharClass;
 import pl.marcinchwedczuk.reng.RAst;
 
 import java.util.ArrayList;
@@ -271,7 +272,7 @@ public class RParser {
 
         // Check if group starts with ^ e.g. [^0-9]
         boolean negated = consumeIfPresent(RTokenType.AT_BEGINNING);
-        CharList chars = new CharList();
+        CharClass.Builder chars = CharClass.builder();
 
         while (true) {
             if (lookahead(0, RTokenType.EOF)) {
@@ -281,20 +282,20 @@ public class RParser {
 
             if (lookahead(0, RTokenType.RGROUP)) {
                 consume(RTokenType.RGROUP);
-                if (chars.size() == 0) {
+                if (chars.isEmpty()) {
                     throw new RParseException(groupStart,
                             "Empty groups are not supported, " +
                                     "use non empty group like '[abc]'.");
                 }
 
                 return negated
-                        ? RAst.invGroup(chars.toArray())
-                        : RAst.group(chars.toArray());
+                        ? RAst.invGroup(chars.build())
+                        : RAst.group(chars.build());
             } else if (lookahead(0, RTokenType.CHARACTER) &&
                     lookahead(1, '-') &&
                     lookahead(2, RTokenType.CHARACTER)) {
 
-                chars.addAll(GcharacterRange());
+                GcharacterRange(chars);
             } else {
                 // Consume special characters like '.' or '^'
                 RToken t = consume(currToken().type);
@@ -303,25 +304,14 @@ public class RParser {
         }
     }
 
-    private char[] GcharacterRange() {
+    private void GcharacterRange(CharClass.Builder chars) {
         // e.g. 0-9 inside [ ]
         RToken tFrom = consume(RTokenType.CHARACTER);
         consume('-');
         RToken tTo = consume(RTokenType.CHARACTER);
 
-        if (tFrom.c > tTo.c) {
-            // Empty range like 9-0
-            return new char[0];
-        }
-
-        // TODO: Intro more efficient AST type or assume ASCII input
-        char[] chars = new char[tTo.c - tFrom.c + 1];
-
-        for (int c = tFrom.c; c <= tTo.c; c++) {
-            chars[c - tFrom.c] = (char) c;
-        }
-
-        return chars;
+        // Empty range like 9-0 adds nothing
+        chars.addRange(tFrom.c, tTo.c);
     }
 
     private char Gchar() {
@@ -3,6 +3,12 @@ package pl.marcinchwedczuk.reng;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -215,6 +221,86 @@ public class BacktrackingMatcherTest {
         Assert.assertEquals("aaaaa", m.matched());
     }
 
+    @Test public void rle_scheme_matches() {
+        // regex: ^(A|B)*$
+        RAst rABs = RAst.fullMatch(
+                RAst.star(
+                        RAst.alternative(
+                                RAst.group('A'),
+                                RAst.group('B'))));
+
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            assertTrue(matchRle("ABAB", rABs, policy).hasMatch);
+            assertFalse(matchRle("AxA", rABs, policy).hasMatch);
+        }
+
+        RAst rAbc = RAst.literal("abc");
+        Match m = matchRle("XYZabc", rAbc, MemoisationPolicy.ALL);
+        Assert.assertEquals(3, m.start);
+        Assert.assertEquals("abc", m.matched());
+    }
+
+    @Test public void can_match_from_many_threads() throws Exception {
+        // regex: ^(foo|bar)+$
+        RAst r = RAst.fullMatch(
+                RAst.plus(RAst.alternative(
+                        RAst.literal("foo"), RAst.literal("bar"))));
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                MemoisationPolicy policy =
+                        MemoisationPolicy.values()[i % MemoisationPolicy.values().length];
+                MemoisationEncodingScheme scheme =
+                        MemoisationEncodingScheme.values()[i % MemoisationEncodingScheme.values().length];
+                boolean shouldMatch = (i % 2 == 0);
+                String input = shouldMatch ? "foobarbarfoo" : "foobarbaxfoo";
+
+                results.add(pool.submit(() ->
+                        BacktrackingMatcher.match(input, r, policy, scheme).hasMatch == shouldMatch));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void empty_iteration_ends_the_repeat() {
+        // regex: (a?|b)?
+        RAst r = RAst.repeat(
+                RAst.alternative(
+                        RAst.repeat(RAst.group('a'), 0, 1),
+                        RAst.group('b')),
+                0, 1);
+
+        // a? matches the empty string first, same as java.util.regex
+        Input input = Input.of("b");
+        int[] end = { -1 };
+        assertTrue(BacktrackingMatcher.match(input, r, () -> {
+            end[0] = input.currentPos();
+            return true;
+        }));
+        Assert.assertEquals(0, end[0]);
+
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                Match m = BacktrackingMatcher.match("b", r, policy, scheme);
+                assertTrue(m.hasMatch);
+                Assert.assertEquals(0, m.start);
+                Assert.assertEquals(0, m.end);
+            }
+        }
+    }
+
+    private static Match matchRle(String input, RAst regex, MemoisationPolicy policy) {
+        return BacktrackingMatcher.match(input, regex,
+                policy, MemoisationEncodingScheme.RLE);
+    }
+
     private static void assertMatches(String input, RAst regex) {
         Match m = BacktrackingMatcher.match(input, regex);
 
@@ -0,0 +1,48 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BitMapTest {
+    @Test public void new_bitmap_has_no_set_cells() {
+        BacktrackingMatcher.BitMap bitMap = new BacktrackingMatcher.BitMap(3, 10);
+
+        for (int node = 0; node < 3; node++) {
+            for (int pos = 0; pos <= 10; pos++) {
+                assertFalse(bitMap.isSet(node, pos));
+            }
+        }
+    }
+
+    @Test public void stores_tri_state_per_cell() {
+        BacktrackingMatcher.BitMap bitMap = new BacktrackingMatcher.BitMap(3, 40);
+
+        bitMap.setValue(1, 31, true);
+        bitMap.setValue(1, 32, false);
+        bitMap.setValue(2, 40, true);
+
+        assertTrue(bitMap.isSet(1, 31));
+        assertTrue(bitMap.isMatch(1, 31));
+        assertTrue(bitMap.isSet(1, 32));
+        assertFalse(bitMap.isMatch(1, 32));
+        assertTrue(bitMap.isSet(2, 40));
+        assertTrue(bitMap.isMatch(2, 40));
+
+        // Neighbours are not touched
+        assertFalse(bitMap.isSet(1, 30));
+        assertFalse(bitMap.isSet(1, 33));
+        assertFalse(bitMap.isSet(2, 31));
+        assertFalse(bitMap.isSet(2, 39));
+    }
+
+    @Test public void first_value_wins() {
+        BacktrackingMatcher.BitMap bitMap = new BacktrackingMatcher.BitMap(1, 1);
+
+        bitMap.setValue(0, 1, false);
+        bitMap.setValue(0, 1, true);
+
+        assertTrue(bitMap.isSet(0, 1));
+        assertFalse(bitMap.isMatch(0, 1));
+    }
+}
@@ -0,0 +1,33 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class BitParallelMatcherTest {
+    @Test public void handles_heavy_alternation_without_memoisation() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) input.append('a');
+        String s = input.toString();
+
+        BitParallelMatcher bits = BitParallelMatcher.tryCompile(RParser.parse("^(a|a)*b$"));
+        assertFalse(bits.containsMatch(s));
+        assertTrue(bits.containsMatch(s + "b"));
+    }
+
+    @Test public void rejects_unsupported_patterns() {
+        // 65 positions
+        assertNull(BitParallelMatcher.tryCompile(RParser.parse("a{65}")));
+        assertNotNull(BitParallelMatcher.tryCompile(RParser.parse("a{64}")));
+
+        assertNull(BitParallelMatcher.tryCompile(RParser.parse("a$|b")));
+        assertNull(BitParallelMatcher.tryCompile(RParser.parse("a(?=b)")));
+    }
+
+    @Test public void counts_positions_of_unrolled_repeats() {
+        BitParallelMatcher bits = BitParallelMatcher.tryCompile(RParser.parse("[0-9]{2,4}x*"));
+
+        assertEquals(5, bits.positionCount());
+    }
+}
@@ -0,0 +1,82 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CharClassTest {
+    @Test public void contains_ascii_and_other_chars() {
+        CharClass c = CharClass.builder()
+                .add('a').add('?').add('ą')
+                .addRange('0', '9')
+                .addRange('Ѐ', 'ӿ')
+                .build();
+
+        assertTrue(c.contains('a'));
+        assertTrue(c.contains('?'));
+        assertTrue(c.contains('5'));
+        assertTrue(c.contains('ą'));
+        assertTrue(c.contains('Ѐ'));
+        assertTrue(c.contains('ӿ'));
+
+        assertFalse(c.contains('b'));
+        assertFalse(c.contains('\u0000'));
+        assertFalse(c.contains('\u007f'));
+        assertFalse(c.contains('Ą'));
+        assertFalse(c.contains('Ԁ'));
+        assertFalse(c.contains('￿'));
+    }
+
+    @Test public void merges_overlapping_and_adjacent_ranges() {
+        CharClass c = CharClass.builder()
+                .addRange('d', 'f')
+                .addRange('a', 'c')
+                .addRange('b', 'e')
+                .add('x')
+                .build();
+
+        assertEquals(2, c.rangeCount());
+        assertEquals('a', c.rangeFrom(0));
+        assertEquals('f', c.rangeTo(0));
+        assertEquals(7, c.size());
+        assertEquals("abcdefx", c.toString());
+    }
+
+    @Test public void empty_range_adds_nothing() {
+        assertTrue(CharClass.range('9', '0').isEmpty());
+        assertSame(CharClass.EMPTY, CharClass.of());
+        assertFalse(CharClass.EMPTY.contains('a'));
+    }
+
+    @Test public void whole_alphabet_is_a_single_range() {
+        CharClass all = CharClass.range('\u0000', '￿');
+
+        assertEquals(1, all.rangeCount());
+        assertEquals(65536, all.size());
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            assertTrue(all.contains((char) c));
+        }
+    }
+
+    @Test public void union_and_equality() {
+        CharClass ab = CharClass.of('a', 'b');
+        CharClass bc = CharClass.of('b', 'c');
+
+        assertEquals(CharClass.range('a', 'c'), ab.union(bc));
+        assertEquals(CharClass.range('a', 'c').hashCode(), ab.union(bc).hashCode());
+        assertNotEquals(ab, bc);
+    }
+
+    @Test public void complement_covers_the_rest_of_the_alphabet() {
+        CharClass c = CharClass.builder().add('\u0000').addRange('b', 'd').build();
+        CharClass rest = c.complement();
+
+        assertEquals(2, rest.rangeCount());
+        assertEquals('\u0001', rest.rangeFrom(0));
+        assertEquals('a', rest.rangeTo(0));
+        assertEquals('e', rest.rangeFrom(1));
+        assertEquals('\uffff', rest.rangeTo(1));
+        assertEquals(CharClass.EMPTY, CharClass.range('\u0000', '\uffff').complement());
+        assertEquals(c, rest.complement());
+    }
+}
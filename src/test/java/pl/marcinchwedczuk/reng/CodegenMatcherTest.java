@@ -0,0 +1,48 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import javax.tools.ToolProvider;
+import java.lang.reflect.Modifier;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class CodegenMatcherTest {
+    @Test public void memoisation_keeps_evil_patterns_linear() {
+        assumeNotNull(ToolProvider.getSystemJavaCompiler());
+
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) input.append('a');
+
+        CodegenMatcher m = CodegenMatcher.tryCompile(
+                RParser.parse("^(a|a)*$"),
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                MemoisationEncodingScheme.BIT_MAP);
+
+        assertTrue(m.matches(input.toString()));
+        assertFalse(m.matches(input + "b"));
+    }
+
+    @Test public void generated_class_is_package_private() {
+        assumeNotNull(ToolProvider.getSystemJavaCompiler());
+
+        CodegenMatcher m = CodegenMatcher.tryCompile(RParser.parse("ab*"),
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.HASH_TABLE);
+
+        assertEquals("abb", m.find("xabbx").matched());
+
+        Class<?> generated = m.generatedClass();
+        assertEquals(CodegenMatcher.class.getClassLoader(), generated.getClassLoader());
+        assertTrue(generated.getName().startsWith("pl.marcinchwedczuk.reng."));
+        assertFalse(Modifier.isPublic(generated.getModifiers()));
+    }
+
+    @Test public void does_not_compile_unsupported_patterns() {
+        assertNull(CodegenMatcher.tryCompile(RParser.parse("a(?=b)"),
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.HASH_TABLE));
+        assertNull(CodegenMatcher.tryCompile(RParser.parse("a{1000}"),
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.HASH_TABLE));
+    }
+}
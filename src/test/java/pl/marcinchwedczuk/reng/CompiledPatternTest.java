@@ -0,0 +1,160 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompiledPatternTest {
+    @Test public void find_returns_leftmost_match() {
+        CompiledPattern p = CompiledPattern.compile("(foo|bar)+");
+
+        Match m = p.find("xxbarfooyy");
+
+        assertTrue(m.hasMatch);
+        assertEquals(2, m.start);
+        assertEquals("barfoo", m.matched());
+        assertFalse(p.find("xxbafoyy").hasMatch);
+    }
+
+    @Test public void matches_requires_whole_input() {
+        CompiledPattern p = CompiledPattern.compile("[0-9]+(\\.[0-9]+)?");
+
+        assertTrue(p.matches("3"));
+        assertTrue(p.matches("3.1415"));
+
+        assertFalse(p.matches(""));
+        assertFalse(p.matches("3."));
+        assertFalse(p.matches("x3.14"));
+        assertFalse(p.matches("3.14x"));
+    }
+
+    @Test public void can_be_reused_with_every_policy_and_scheme() {
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                CompiledPattern p = CompiledPattern.compile(
+                        "^[_a-zA-Z][_a-zA-Z0-9]*@gmail\\.com$", policy, scheme);
+
+                for (int i = 0; i < 3; i++) {
+                    assertTrue(p.find("foo_1@gmail.com").hasMatch);
+                    assertFalse(p.find("1foo@gmail.com").hasMatch);
+                }
+            }
+        }
+    }
+
+    @Test public void resolves_memo_sites_once() {
+        RAst r = RAst.concat(
+                RAst.group('a'),
+                RAst.star(RAst.group('b')));
+
+        CompiledPattern all = CompiledPattern.compile(r,
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+        assertEquals(4, all.memoSiteCount());
+
+        CompiledPattern none = CompiledPattern.compile(r,
+                MemoisationPolicy.NONE, MemoisationEncodingScheme.BIT_MAP);
+        assertEquals(0, none.memoSiteCount());
+
+        // Repeat and its body
+        CompiledPattern ancestors = CompiledPattern.compile(r,
+                MemoisationPolicy.ANCESTOR_NODES, MemoisationEncodingScheme.BIT_MAP);
+        assertEquals(2, ancestors.memoSiteCount());
+        RAst star = ancestors.regex().exprs.get(1);
+        assertTrue(ancestors.isMemoSite(star));
+        assertTrue(ancestors.isMemoSite(star.headExpr()));
+        assertFalse(ancestors.isMemoSite(ancestors.regex().exprs.get(0)));
+    }
+
+    @Test public void memo_budget_evicts_without_changing_results() {
+        CompiledPattern unbounded = CompiledPattern.compile("(a|aa)*c");
+        CompiledPattern bounded = unbounded.withMemoBudget(1024);
+
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) input.append('a');
+
+        assertFalse(bounded.find(input.toString()).hasMatch);
+        assertTrue(bounded.find(input + "c").hasMatch);
+        // Only failures are memoised, every start before the b fails
+        Match m = bounded.find(input + "bc");
+        assertEquals(201, m.start);
+        assertEquals(202, m.end);
+
+        assertTrue(bounded.memoEvictions() > 0);
+        assertEquals(0, unbounded.memoEvictions());
+        assertEquals(CompiledPattern.UNLIMITED, unbounded.memoBudgetBytes());
+    }
+
+    @Test public void counted_repeat_bodies_are_not_memoised() {
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            CompiledPattern p = CompiledPattern.compile("(a|b)*a(a|b){11}",
+                    policy, MemoisationEncodingScheme.HASH_TABLE);
+
+            assertTrue(policy.toString(), p.matches("ababababababab"));
+            assertFalse(policy.toString(), p.matches("abbbbbbbbbbbb"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void memoises_bodies_of_small_counted_repeats() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 500; i++) input.append('a');
+        input.append("bc");
+
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            if (policy == MemoisationPolicy.NONE) continue;
+
+            for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                CompiledPattern p = CompiledPattern.compile("(.*a){2,5}c", policy, scheme);
+                assertFalse(p.find(input.toString()).hasMatch);
+                assertTrue(p.find("xaaac").hasMatch);
+            }
+        }
+    }
+
+    @Test public void nodes_shared_by_backreferences_are_not_memoised() {
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            assertSpan(policy, "(a)*\\1", "cca", 2, 3);
+            assertSpan(policy, "((a)*\\1){1,2}", "cca", 2, 3);
+            assertSpan(policy, "((a)*\\1){1,2}", "aaca", 0, 2);
+        }
+    }
+
+    @Test public void memo_does_not_skip_the_end_of_a_match_in_lookaheads() {
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            assertSpan(policy, "(?![^a])(?![ab])(abc)?", "cxaxc", 1, 1);
+            assertSpan(policy, "((?!.)[ab]|(a){1,2})(?!ab)[^a].", "cbabbaa", 2, 5);
+        }
+    }
+
+    private static void assertSpan(MemoisationPolicy policy,
+                                   String pattern, String input, int start, int end) {
+        Match m = CompiledPattern.compile(pattern, policy,
+                MemoisationEncodingScheme.HASH_TABLE).find(input);
+        String msg = policy + ": " + pattern + " on '" + input + "'";
+        assertTrue(msg, m.hasMatch);
+        assertEquals(msg, start, m.start);
+        assertEquals(msg, end, m.end);
+    }
+
+    @Test public void literal_prefix_stops_at_lookahead() {
+        // Lookahead branches consume input together with what follows
+        assertMatch(0, 3, "abc", RAst.concat(
+                RAst.group('a'),
+                RAst.posLookAhead(RAst.group('b')),
+                RAst.group('c')));
+        assertMatch(0, 2, "bc", RAst.concat(
+                RAst.posLookAhead(RAst.group('b')),
+                RAst.group('c')));
+    }
+
+    private static void assertMatch(int start, int end, String input, RAst regex) {
+        for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+            Match m = CompiledPattern.compile(regex, policy,
+                    MemoisationEncodingScheme.HASH_TABLE).find(input);
+
+            assertTrue(policy + " on " + input, m.hasMatch);
+            assertEquals(start, m.start);
+            assertEquals(end, m.end);
+        }
+    }
+}
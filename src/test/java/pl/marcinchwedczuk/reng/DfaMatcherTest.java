@@ -0,0 +1,36 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class DfaMatcherTest {
+    @Test public void minimises_states() {
+        // Subset construction gives a separate state after each branch
+        DfaMatcher dfa = DfaMatcher.tryCompile(RParser.parse("(a|b)(a|b)(a|b)"));
+
+        // Start, after 1, 2, 3 chars and dead
+        assertEquals(5, dfa.stateCount());
+    }
+
+    @Test public void gives_up_above_state_cap() {
+        // Needs 2^12 states to remember the last 12 characters
+        RAst regex = RParser.parse("(a|b)*a(a|b){11}");
+
+        assertNull(DfaMatcher.tryCompile(regex, 1000));
+        assertNull(DfaMatcher.tryCompile(RParser.parse("a(?=b)")));
+    }
+
+    @Test public void compiled_pattern_falls_back_when_dfa_is_too_large() {
+        CompiledPattern small = CompiledPattern.compile("^[0-9]+(\\.[0-9]+)?$").withFullDfa();
+        assertTrue(small.hasFullDfa());
+        assertTrue(small.matches("3.1415"));
+        assertFalse(small.matches("3."));
+
+        CompiledPattern large = CompiledPattern.compile("(a|b)*a(a|b){11}").withFullDfa(1000);
+        assertFalse(large.hasFullDfa());
+        assertTrue(large.matches("abbbbbbbbbbb"));
+        assertFalse(large.matches("bbbbbbbbbbbb"));
+    }
+}
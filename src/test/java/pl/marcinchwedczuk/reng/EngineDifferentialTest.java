@@ -0,0 +1,290 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class EngineDifferentialTest {
+    private static final String[] PATTERNS = {
+            "abc",
+            "a|ab|abc",
+            "abcd|c",
+            "(foo|bar)+",
+            "a*b?c+",
+            "x{2,3}y{2}",
+            "(a|b)*abb",
+            "^[-+]?(([0-9]+(\\.[0-9]*)?)|(\\.[0-9]+))([Ee]-?[0-9]+)?$",
+            "^[_a-zA-Z][_a-zA-Z0-9]*@gmail\\.com$",
+            "^((19|20)[0-9]{2})-(0[1-9]|1[012])-(0[1-9]|[12][0-9]|3[01])$",
+            "[0-9]+(\\.[0-9]+)?",
+            "[^0-9]+",
+            "(a*)*b",
+            "(a|b?)+c",
+            "(a|a)*",
+            "a*",
+            "x*$",
+            "^x*",
+            "^x*$",
+            "^$",
+            "$^",
+            "a$|b",
+            "b|^a",
+            "^ab|[^a]b",
+            "x?[0-9]b*",
+            "(a?|b)?",
+            "(a|b)*a(a|b){3}",
+            "(a|b)*a(a|b){11}",
+            "(a|b)*a(a|b){70}",
+            "[Ā-￿]x",
+            "^(ab|c)*$",
+            "^(ab|c)+$",
+            "^a?$",
+            "^[^x]*x$",
+            "^(a$|b)$",
+            "a(?=b)",
+            "a(?!b)",
+            "(foo|bar)+(?=x)",
+            ".(.)\\1",
+            "(a|b)\\1",
+            "(ab)c\\1",
+            "x(ab)c\\1y|ab+",
+            "(abc|abd)+x",
+            // An empty iteration ends the loop, like in java.util.regex
+            "((b)?|ca)*",
+            "(a?|b){0,2}",
+            "(a?|b)*",
+            "(([^a]{0,2}|(a|[^a]))*)*"
+    };
+
+    private static final String[] INPUTS = {
+            "", "a", "b", "x", "xx", "ab", "ba", "aa", "abc", "xyz", "bc",
+            "ca", "abab", "aaab", "aacc", "abac", "abbbab", "abbabb", "abcab",
+            "abcba", "yyx", "yxx", "xabcdx", "xxabcxx", "xyzyz", "zxabcaby",
+            "xabcab", "ababdabcx", "foobarfoo", "foobarx", "xxxyy", "xxyyy",
+            "3.1415E10", "-.23", "32..3", "1e", "12ab34", "v 12.5 and 7",
+            "foo_1@gmail.com", "1foo@gmail.com", "2012-12-24", "2000-13-01",
+            "1999-02-30x", "ababababababab", "bbbbbbbbbbbbbbbbb", "caabba",
+            "€x", "ÿx"
+    };
+
+    private static final long[] SEEDS = { 1, 2, 3 };
+    private static final int PATTERNS_PER_SEED = 500;
+    private static final int INPUTS_PER_PATTERN = 20;
+    // Generating and compiling Java source is slow, the random
+    // patterns get a generated matcher for a single policy only
+    private static final int CODEGEN_PATTERNS_PER_SEED = 10;
+
+    @Test public void every_engine_agrees_with_the_interpreter() {
+        for (String pattern : PATTERNS) {
+            RAst regex = RParser.parse(pattern);
+            Engines engines = new Engines(regex, MemoisationPolicy.values());
+
+            for (String input : INPUTS) {
+                engines.check(pattern + " on \"" + input + "\"", input);
+            }
+        }
+    }
+
+    @Test public void every_engine_agrees_with_the_interpreter_on_random_patterns() {
+        for (long seed : SEEDS) {
+            Random random = new Random(seed);
+
+            for (int n = 0; n < PATTERNS_PER_SEED; n++) {
+                // The interpreter does not memoise, so deeper nests of
+                // nullable loops take minutes to match
+                String pattern = randomPattern(random, 3);
+                RAst regex = RParser.parse(pattern);
+                Engines engines = new Engines(regex, (n < CODEGEN_PATTERNS_PER_SEED)
+                        ? new MemoisationPolicy[] { MemoisationPolicy.IN_DEGREE_GREATER_THAN_1 }
+                        : new MemoisationPolicy[0]);
+
+                for (int i = 0; i < INPUTS_PER_PATTERN; i++) {
+                    String input = randomInput(random);
+                    engines.check(pattern + " on \"" + input + "\", seed " + seed, input);
+                }
+            }
+        }
+    }
+
+    // Every engine that can run the pattern, the ones that only
+    // tell if there is a match are checked against the span
+    private static final class Engines {
+        private final RAst regex;
+        private final Map<String, Function<String, String>> finders = new LinkedHashMap<>();
+        private final Map<String, Function<String, Boolean>> matchers = new LinkedHashMap<>();
+        private final Map<String, Function<String, Boolean>> searchers = new LinkedHashMap<>();
+
+        // The matcher is generated for each of codegenPolicies
+        Engines(RAst regex, MemoisationPolicy[] codegenPolicies) {
+            this.regex = regex;
+
+            for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+                for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                    CompiledPattern compiled = CompiledPattern.compile(regex, policy, scheme);
+                    finders.put("CompiledPattern " + policy + " " + scheme,
+                            s -> span(compiled.find(s)));
+                    matchers.put("CompiledPattern " + policy + " " + scheme,
+                            compiled::matches);
+                }
+            }
+
+            PlannedPattern planned = PlannedPattern.compile(regex);
+            finders.put("PlannedPattern", s -> span(planned.find(s)));
+            matchers.put("PlannedPattern", planned::matches);
+            searchers.put("PlannedPattern", planned::containsMatch);
+
+            // The engines below have no lookaheads
+            if (!NfaProgram.supports(regex)) return;
+
+            PikeVmMatcher pikeVm = PikeVmMatcher.compile(regex);
+            finders.put("PikeVmMatcher", s -> span(pikeVm.find(s)));
+            matchers.put("PikeVmMatcher", pikeVm::matches);
+
+            for (MemoisationPolicy policy : MemoisationPolicy.values()) {
+                for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                    IterativeBacktrackingMatcher iterative =
+                            IterativeBacktrackingMatcher.compile(regex, policy, scheme);
+                    finders.put("IterativeBacktrackingMatcher " + policy + " " + scheme,
+                            s -> span(iterative.find(s)));
+                    matchers.put("IterativeBacktrackingMatcher " + policy + " " + scheme,
+                            iterative::matches);
+                }
+            }
+
+            ReverseSearchMatcher reverse = ReverseSearchMatcher.compile(regex);
+            finders.put("ReverseSearchMatcher", s -> span(reverse.find(s)));
+
+            CompiledPattern withReverse = CompiledPattern.compile(regex,
+                    MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                    MemoisationEncodingScheme.HASH_TABLE).withReverseSearch();
+            finders.put("CompiledPattern with reverse search", s -> span(withReverse.find(s)));
+
+            CompiledPattern withDfa = CompiledPattern.compile(regex,
+                    MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                    MemoisationEncodingScheme.HASH_TABLE).withFullDfa();
+            matchers.put("CompiledPattern with full DFA", withDfa::matches);
+
+            OnePassMatcher onePass = OnePassMatcher.tryCompile(regex);
+            if (onePass != null) {
+                finders.put("OnePassMatcher", s -> span(onePass.find(s)));
+                matchers.put("OnePassMatcher", onePass::matches);
+            }
+
+            DfaMatcher dfa = DfaMatcher.tryCompile(regex);
+            if (dfa != null) {
+                matchers.put("DfaMatcher", dfa::matches);
+                searchers.put("DfaMatcher", dfa::containsMatch);
+            }
+
+            BitParallelMatcher bits = BitParallelMatcher.tryCompile(regex);
+            if (bits != null) {
+                matchers.put("BitParallelMatcher", bits::matches);
+                searchers.put("BitParallelMatcher", bits::containsMatch);
+            }
+
+            LazyDfaMatcher lazyDfa = LazyDfaMatcher.compile(regex);
+            matchers.put("LazyDfaMatcher", lazyDfa::matches);
+            searchers.put("LazyDfaMatcher", lazyDfa::containsMatch);
+
+            for (MemoisationPolicy policy : codegenPolicies) {
+                CodegenMatcher generated = CodegenMatcher.tryCompile(regex,
+                        policy, MemoisationEncodingScheme.HASH_TABLE);
+                if (generated != null) {
+                    finders.put("CodegenMatcher " + policy, s -> span(generated.find(s)));
+                    matchers.put("CodegenMatcher " + policy, generated::matches);
+                }
+            }
+        }
+
+        void check(String message, String input) {
+            String span = span(interpreterFind(input, regex));
+            for (Map.Entry<String, Function<String, String>> finder : finders.entrySet()) {
+                assertEquals(finder.getKey() + ": " + message,
+                        span, finder.getValue().apply(input));
+            }
+
+            boolean found = !span.equals(NO_MATCH);
+            for (Map.Entry<String, Function<String, Boolean>> searcher : searchers.entrySet()) {
+                assertEquals(searcher.getKey() + ": " + message,
+                        found, searcher.getValue().apply(input));
+            }
+
+            boolean matches = interpreterMatches(input, regex);
+            for (Map.Entry<String, Function<String, Boolean>> matcher : matchers.entrySet()) {
+                assertEquals(matcher.getKey() + ": " + message,
+                        matches, matcher.getValue().apply(input));
+            }
+        }
+    }
+
+    // BacktrackingMatcher without memoisation, walking the RAst as
+    // parsed. It shares none of the simplifier, unroller and start
+    // position filters with the engines.
+    private static Match interpreterFind(String s, RAst regex) {
+        for (int start = 0; start <= s.length(); start++) {
+            Input input = Input.of(s);
+            input.advance(start);
+            int[] end = { -1 };
+            if (BacktrackingMatcher.match(input, regex, () -> {
+                end[0] = input.currentPos();
+                return true;
+            })) {
+                return new Match(s, true, start, end[0]);
+            }
+        }
+        return new Match(s, false, -1, -1);
+    }
+
+    private static boolean interpreterMatches(String s, RAst regex) {
+        Input input = Input.of(s);
+        return BacktrackingMatcher.match(input, regex, input::atEnd);
+    }
+
+    // Small alphabet, so the parts of a pattern often overlap
+    private static String randomPattern(Random random, int depth) {
+        String sub1 = (depth > 0) ? randomPattern(random, depth - 1) : null;
+        String sub2 = (depth > 0) ? randomPattern(random, depth - 1) : null;
+
+        switch (random.nextInt(depth > 0 ? 18 : 5)) {
+            case 0: return "a";
+            case 1: return "b";
+            case 2: return "c";
+            case 3: return "[ab]";
+            case 4: return "[^a]";
+            case 5: return sub1 + sub2;
+            case 6: return "(" + sub1 + "|" + sub2 + ")";
+            case 7: return "(" + sub1 + "|(" + sub2 + ")?)";
+            case 8: return "(" + sub1 + ")*";
+            case 9: return "(" + sub1 + ")+";
+            case 10: return "(" + sub1 + ")?";
+            case 11: return "(" + sub1 + "){1,2}";
+            case 12: return "(" + sub1 + "){0,2}";
+            case 13: return "(" + sub1 + "){2,3}";
+            case 14: return random.nextBoolean() ? "^" + sub1 : sub1 + "$";
+            case 15: return "(?=" + sub1 + ")" + sub2;
+            case 16: return "(?!" + sub1 + ")" + sub2;
+            default: return "(" + sub1 + ")\\1";
+        }
+    }
+
+    private static String randomInput(Random random) {
+        StringBuilder input = new StringBuilder();
+        int length = random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            input.append("abc".charAt(random.nextInt(3)));
+        }
+        return input.toString();
+    }
+
+    private static final String NO_MATCH = "no match";
+
+    private static String span(Match m) {
+        return m.hasMatch ? m.start + "-" + m.end : NO_MATCH;
+    }
+}
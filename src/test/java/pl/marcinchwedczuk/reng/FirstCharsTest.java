@@ -0,0 +1,78 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class FirstCharsTest {
+    private static FirstChars firstOf(String pattern) {
+        return FirstChars.of(RParser.parse(pattern));
+    }
+
+    @Test public void optional_prefix_adds_the_chars_after_it() {
+        FirstChars first = firstOf("[-+]?[0-9]+");
+
+        assertEquals("+-0123456789", first.chars().toString());
+        assertFalse(first.isNullable());
+        assertFalse(first.isAnchored());
+    }
+
+    @Test public void alternatives_are_joined() {
+        assertEquals("abxyz", firstOf("(a|b)c|x*y?z*").chars().toString());
+        assertTrue(firstOf("(a|b)c|x*y?z*").isNullable());
+        assertEquals("abx", firstOf("(a|b*)*x").chars().toString());
+    }
+
+    @Test public void negated_group_starts_with_its_complement() {
+        FirstChars first = firstOf("[^a]b");
+
+        assertFalse(first.chars().contains('a'));
+        assertTrue(first.chars().contains('b'));
+        assertTrue(first.chars().contains('￿'));
+    }
+
+    @Test public void positive_lookahead_adds_its_first_chars() {
+        // (?=b)c matches bc, the lookahead branch consumes the b
+        FirstChars first = FirstChars.of(RAst.concat(
+                RAst.posLookAhead(RAst.group('b')),
+                RAst.group('c')));
+
+        assertTrue(first.chars().contains('b'));
+        assertEquals(0, first.nextCandidate("bc", 0));
+
+        FirstChars negative = FirstChars.of(RAst.concat(
+                RAst.negLookAhead(RAst.group('b')),
+                RAst.group('c')));
+        assertEquals(0, negative.nextCandidate("c", 0));
+    }
+
+    @Test public void anchored_pattern_starts_only_at_beginning() {
+        assertTrue(firstOf("^abc").isAnchored());
+        assertTrue(firstOf("^a|^b").isAnchored());
+        assertFalse(firstOf("^a|b").isAnchored());
+        assertFalse(firstOf("(^a)?b").isAnchored());
+
+        FirstChars first = firstOf("^a");
+        assertEquals(0, first.nextCandidate("ba", 0));
+        assertEquals(-1, first.nextCandidate("ba", 1));
+    }
+
+    @Test public void skips_positions_that_cannot_start_a_match() {
+        FirstChars first = firstOf("[0-9]+");
+
+        assertEquals(3, first.nextCandidate("abc12", 0));
+        assertEquals(4, first.nextCandidate("abc12", 4));
+        assertEquals(-1, first.nextCandidate("abc12", 5));
+        assertEquals(-1, first.nextCandidate("abc", 0));
+    }
+
+    @Test public void nullable_pattern_starts_anywhere() {
+        FirstChars first = firstOf("a*$");
+
+        assertTrue(first.isNullable());
+        assertEquals(2, first.nextCandidate("xyz", 2));
+        assertEquals(3, first.nextCandidate("xyz", 3));
+        assertEquals(-1, first.nextCandidate("xyz", 4));
+    }
+}
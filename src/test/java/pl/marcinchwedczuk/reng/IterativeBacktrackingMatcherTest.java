@@ -0,0 +1,38 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class IterativeBacktrackingMatcherTest {
+    @Test public void long_input_does_not_overflow_the_stack() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200_000; i++) input.append("ab");
+        String s = input.toString();
+
+        IterativeBacktrackingMatcher m = IterativeBacktrackingMatcher.compile(
+                RParser.parse("^(ab|a)*$"),
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                MemoisationEncodingScheme.RLE);
+
+        assertTrue(m.matches(s));
+        assertFalse(m.matches(s + "b"));
+    }
+
+    @Test public void memoisation_keeps_evil_patterns_linear() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10_000; i++) input.append('a');
+
+        for (MemoisationPolicy policy : new MemoisationPolicy[] {
+                MemoisationPolicy.ALL,
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1,
+                MemoisationPolicy.ANCESTOR_NODES }) {
+            IterativeBacktrackingMatcher m = IterativeBacktrackingMatcher.compile(
+                    RParser.parse("(a+)*c"), policy, MemoisationEncodingScheme.BIT_MAP);
+
+            assertFalse(policy.toString(), m.find(input.toString()).hasMatch);
+            assertTrue(m.memoSiteCount() > 0);
+        }
+    }
+}
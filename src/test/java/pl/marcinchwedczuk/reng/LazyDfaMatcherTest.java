@@ -0,0 +1,77 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class LazyDfaMatcherTest {
+    @Test public void small_cache_is_flushed_but_results_stay_correct() {
+        // Needs about 2^10 states to remember the last 10 characters
+        RAst regex = RParser.parse("(a|b)*a(a|b){9}");
+        LazyDfaMatcher dfa = LazyDfaMatcher.compile(regex, 4096);
+
+        StringBuilder input = new StringBuilder();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            input.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        String s = input.toString();
+
+        assertEquals(PikeVmMatcher.compile(regex).matches(s), dfa.matches(s));
+        assertTrue(dfa.cacheFlushes() > 0);
+
+        LazyDfaMatcher unbounded = LazyDfaMatcher.compile(regex);
+        assertEquals(dfa.matches(s), unbounded.matches(s));
+        assertEquals(0, unbounded.cacheFlushes());
+    }
+
+    @Test public void cached_target_state_does_not_flush() {
+        // Every new state beyond the dead and start ones overflows
+        LazyDfaMatcher dfa = LazyDfaMatcher.compile(RParser.parse("(ab)*"), 1);
+
+        // After ab the set of instructions is the start state again
+        assertTrue(dfa.matches("abab"));
+        assertEquals(0, dfa.cacheFlushes());
+    }
+
+    @Test public void concurrent_calls_agree() throws Exception {
+        LazyDfaMatcher dfa = LazyDfaMatcher.compile(RParser.parse("(a|b)*a(a|b){9}"), 4096);
+        StringBuilder input = new StringBuilder();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            input.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        String s = input.toString();
+        boolean expected = dfa.matches(s);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> dfa.matches(s)));
+            }
+            for (Future<Boolean> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void runs_in_linear_time_on_evil_patterns() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) input.append('a');
+        input.append('b');
+
+        LazyDfaMatcher dfa = LazyDfaMatcher.compile(RParser.parse("(a+)*c"));
+        assertFalse(dfa.containsMatch(input.toString()));
+    }
+}
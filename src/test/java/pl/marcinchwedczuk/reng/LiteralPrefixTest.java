@@ -0,0 +1,79 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LiteralPrefixTest {
+    private static String prefixOf(String pattern) {
+        return LiteralPrefix.of(RParser.parse(pattern)).literal();
+    }
+
+    @Test public void literal_pattern_is_its_own_prefix() {
+        assertEquals("gmail.com", prefixOf("gmail\\.com"));
+        assertEquals("ERROR: ", prefixOf("^ERROR: .*$"));
+    }
+
+    @Test public void prefix_stops_at_first_optional_or_class() {
+        assertEquals("ab", prefixOf("ab[cd]e"));
+        assertEquals("ab", prefixOf("abc?d"));
+        assertEquals("", prefixOf("a*b"));
+        assertEquals("", prefixOf("[^a]bc"));
+        assertEquals("a", prefixOf("a(?=b)c"));
+    }
+
+    @Test public void alternatives_share_their_common_prefix() {
+        assertEquals("gmail.com", prefixOf("gmail\\.com|gmail\\.com\\.pl"));
+        assertEquals("fo", prefixOf("(foo|fox)d"));
+        assertEquals("foxd", prefixOf("(fox|fox)d"));
+        assertEquals("", prefixOf("a|b"));
+    }
+
+    @Test public void repeats_contribute_their_minimum() {
+        assertEquals("aaab", prefixOf("a{3}b"));
+        assertEquals("aaa", prefixOf("a{3,5}b"));
+        assertEquals("ab", prefixOf("(ab)+c"));
+        assertEquals("ababc", prefixOf("(ab)\\1c"));
+    }
+
+    @Test public void prefix_is_limited() {
+        assertEquals(LiteralPrefix.MAX_LENGTH, prefixOf("a{1000}").length());
+    }
+
+    @Test public void candidates_are_occurrences_of_the_prefix() {
+        Random random = new Random(42);
+        String[] literals = { "a", "ab", "aab", "abcab", "šā" };
+
+        for (String literal : literals) {
+            LiteralPrefix prefix = LiteralPrefix.of(RParser.parse(literal));
+            assertEquals(literal, prefix.literal());
+
+            for (int n = 0; n < 200; n++) {
+                StringBuilder s = new StringBuilder();
+                int length = random.nextInt(30);
+                for (int i = 0; i < length; i++) {
+                    // š and a share the low byte
+                    s.append("abšāc".charAt(random.nextInt(5)));
+                }
+                String input = s.toString();
+
+                for (int from = 0; from <= input.length() + 1; from++) {
+                    assertEquals(input + " from " + from,
+                            input.indexOf(literal, from),
+                            prefix.nextCandidate(input, from));
+                }
+            }
+        }
+    }
+
+    @Test public void empty_prefix_makes_every_position_a_candidate() {
+        LiteralPrefix prefix = LiteralPrefix.of(RParser.parse("[ab]"));
+        assertTrue(prefix.isEmpty());
+        assertEquals(0, prefix.nextCandidate("xyz", 0));
+        assertEquals(3, prefix.nextCandidate("xyz", 3));
+        assertEquals(-1, prefix.nextCandidate("xyz", 4));
+    }
+}
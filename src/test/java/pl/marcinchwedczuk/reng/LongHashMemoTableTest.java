@@ -0,0 +1,98 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LongHashMemoTableTest {
+    @Test public void lookup_of_missing_key_returns_unset() {
+        LongHashMemoTable table = new LongHashMemoTable();
+
+        assertEquals(LongHashMemoTable.UNSET, table.lookup(1, 0));
+        assertEquals(0, table.size());
+    }
+
+    @Test public void stores_and_overwrites_values() {
+        LongHashMemoTable table = new LongHashMemoTable();
+
+        table.put(1, 0, true);
+        table.put(0, 1, false);
+
+        assertEquals(LongHashMemoTable.MATCHED, table.lookup(1, 0));
+        assertEquals(LongHashMemoTable.FAILED, table.lookup(0, 1));
+
+        table.put(1, 0, false);
+        assertEquals(LongHashMemoTable.FAILED, table.lookup(1, 0));
+        assertEquals(2, table.size());
+    }
+
+    @Test public void test_and_set_keeps_the_stored_value() {
+        LongHashMemoTable table = new LongHashMemoTable();
+        table.put(1, 0, true);
+
+        assertTrue(table.testAndSetFailed(1, 0));
+        assertEquals(LongHashMemoTable.MATCHED, table.lookup(1, 0));
+
+        assertFalse(table.testAndSetFailed(0, 1));
+        assertTrue(table.testAndSetFailed(0, 1));
+        assertEquals(LongHashMemoTable.FAILED, table.lookup(0, 1));
+    }
+
+    @Test public void node_and_position_do_not_collide() {
+        assertNotEquals(
+                LongHashMemoTable.key(1, 2),
+                LongHashMemoTable.key(2, 1));
+    }
+
+    @Test public void grows_and_clears() {
+        LongHashMemoTable table = new LongHashMemoTable();
+
+        for (int node = 1; node <= 50; node++) {
+            for (int pos = 0; pos < 200; pos++) {
+                table.put(node, pos, (node + pos) % 3 == 0);
+            }
+        }
+        assertEquals(50 * 200, table.size());
+
+        for (int node = 1; node <= 50; node++) {
+            for (int pos = 0; pos < 200; pos++) {
+                byte expected = ((node + pos) % 3 == 0)
+                        ? LongHashMemoTable.MATCHED
+                        : LongHashMemoTable.FAILED;
+                assertEquals(expected, table.lookup(node, pos));
+            }
+        }
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(LongHashMemoTable.UNSET, table.lookup(7, 7));
+    }
+
+    @Test public void evicts_oldest_entries_when_budget_is_reached() {
+        // 64 slots, at most 32 entries
+        LongHashMemoTable table = new LongHashMemoTable(64 * 13);
+
+        for (int pos = 0; pos < 1000; pos++) {
+            table.setValue(1, pos, true);
+        }
+
+        assertTrue(table.size() < 32);
+        assertTrue(table.evictions() > 0);
+        assertEquals(1000, table.size() + table.evictions());
+
+        // Latest entries survive
+        assertEquals(LongHashMemoTable.MATCHED, table.lookup(1, 999));
+        assertEquals(LongHashMemoTable.UNSET, table.lookup(1, 0));
+    }
+
+    @Test public void unbounded_table_never_evicts() {
+        LongHashMemoTable table = new LongHashMemoTable();
+
+        for (int pos = 0; pos < 10000; pos++) {
+            table.setValue(1, pos, false);
+        }
+
+        assertEquals(10000, table.size());
+        assertEquals(0, table.evictions());
+    }
+}
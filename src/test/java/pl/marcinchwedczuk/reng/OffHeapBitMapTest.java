@@ -0,0 +1,104 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OffHeapBitMapTest {
+    @Test public void direct_buffer_bitmap_stores_values() {
+        try (OffHeapBitMap bitMap = new OffHeapBitMap(3, 100, false)) {
+            assertStoresValues(bitMap);
+        }
+    }
+
+    @Test public void mapped_file_bitmap_stores_values() {
+        try (OffHeapBitMap bitMap = new OffHeapBitMap(3, 100, true)) {
+            assertStoresValues(bitMap);
+        }
+    }
+
+    @Test public void words_span_many_segments() {
+        // Little more than one 1GB segment is too much for a unit test,
+        // check indexing on a small mapped array instead
+        try (OffHeapWords words = OffHeapWords.mapped(1000)) {
+            assertEquals(1000, words.size());
+            assertEquals(0L, words.get(999));
+
+            words.set(0, -1L);
+            words.set(999, 42L);
+            assertEquals(-1L, words.get(0));
+            assertEquals(42L, words.get(999));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void use_after_close_fails_safely() {
+        OffHeapWords words = OffHeapWords.direct(10);
+        words.close();
+        words.close();
+
+        words.get(0);
+    }
+
+    @Test public void off_heap_rle_table_stores_values() {
+        try (RleMemoTable table = new RleMemoTable(2, true)) {
+            for (int pos = 0; pos < 100; pos += 2) {
+                table.setValue(1, pos, pos % 4 == 0);
+            }
+
+            assertEquals(50, table.runCount(1));
+            assertEquals(MemoTable.MATCHED, table.lookup(1, 96));
+            assertEquals(MemoTable.FAILED, table.lookup(1, 98));
+            assertEquals(MemoTable.UNSET, table.lookup(1, 99));
+        }
+    }
+
+    @Test public void off_heap_rle_rows_share_chunks() {
+        try (RleMemoTable table = new RleMemoTable(1000, true)) {
+            // Alternating values make a run per position, rows grow
+            for (int node = 0; node < 1000; node++) {
+                for (int pos = 0; pos < 20; pos++) {
+                    table.setValue(node, pos, (pos + node) % 2 == 0);
+                }
+            }
+
+            for (int node = 0; node < 1000; node++) {
+                assertEquals(20, table.runCount(node));
+                assertEquals(MemoTable.MATCHED, table.lookup(node, node % 2));
+                assertEquals(MemoTable.FAILED, table.lookup(node, 1 - node % 2));
+            }
+            // 32 runs per row after growing, 32000 words in total
+            assertTrue(table.offHeapChunkCount() <= 4);
+        }
+    }
+
+    @Test public void compiled_pattern_uses_off_heap_storage() {
+        for (MemoStorage storage : MemoStorage.values()) {
+            for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+                CompiledPattern p = CompiledPattern.compile(
+                        RAst.fullMatch(RAst.star(RAst.alternative(
+                                RAst.literal("ab"), RAst.group('a')))),
+                        MemoisationPolicy.ALL, scheme, storage);
+
+                assertTrue(p.matches("abaab"));
+                assertFalse(p.find("abaabx").hasMatch);
+            }
+        }
+    }
+
+    private static void assertStoresValues(MemoTable bitMap) {
+        assertEquals(MemoTable.UNSET, bitMap.lookup(2, 100));
+
+        bitMap.setValue(0, 0, true);
+        bitMap.setValue(1, 31, false);
+        bitMap.setValue(2, 100, true);
+        bitMap.setValue(2, 100, false);
+
+        assertEquals(MemoTable.MATCHED, bitMap.lookup(0, 0));
+        assertEquals(MemoTable.FAILED, bitMap.lookup(1, 31));
+        assertEquals(MemoTable.MATCHED, bitMap.lookup(2, 100));
+        assertEquals(MemoTable.UNSET, bitMap.lookup(1, 32));
+        assertTrue(bitMap.isSet(1, 31));
+        assertFalse(bitMap.isMatch(1, 31));
+    }
+}
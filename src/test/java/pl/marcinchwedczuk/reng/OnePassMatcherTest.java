@@ -0,0 +1,27 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class OnePassMatcherTest {
+    @Test public void ambiguous_patterns_are_not_one_pass() {
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("^(a|ab)$")));
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("^a*a$")));
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("^(a|b)*a(a|b)$")));
+    }
+
+    @Test public void unanchored_patterns_are_not_one_pass() {
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("abc")));
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("^abc")));
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("^a$|^b$")));
+        assertNull(OnePassMatcher.tryCompile(RParser.parse("^a(?=b)$")));
+    }
+
+    @Test public void has_a_state_per_char_instruction() {
+        OnePassMatcher m = OnePassMatcher.tryCompile(RParser.parse("^abc$"));
+
+        assertEquals(4, m.stateCount());
+    }
+}
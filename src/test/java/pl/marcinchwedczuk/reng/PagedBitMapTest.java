@@ -0,0 +1,52 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PagedBitMapTest {
+    @Test public void pages_are_allocated_on_first_write() {
+        PagedBitMap bitMap = new PagedBitMap(100, 1000000);
+
+        assertFalse(bitMap.isSet(50, 500000));
+        assertEquals(0, bitMap.allocatedPages());
+
+        bitMap.setValue(50, 500000, true);
+        bitMap.setValue(50, 500001, false);
+        assertEquals(1, bitMap.allocatedPages());
+
+        bitMap.setValue(51, 0, false);
+        assertEquals(2, bitMap.allocatedPages());
+
+        assertTrue(bitMap.isSet(50, 500000));
+        assertTrue(bitMap.isMatch(50, 500000));
+        assertTrue(bitMap.isSet(50, 500001));
+        assertFalse(bitMap.isMatch(50, 500001));
+        assertTrue(bitMap.isSet(51, 0));
+        assertFalse(bitMap.isSet(51, 1));
+    }
+
+    @Test public void last_position_is_addressable() {
+        PagedBitMap bitMap = new PagedBitMap(1, 1024);
+
+        bitMap.setValue(0, 1024, true);
+
+        assertTrue(bitMap.isMatch(0, 1024));
+    }
+
+    @Test public void first_value_wins() {
+        PagedBitMap bitMap = new PagedBitMap(1, 10);
+
+        bitMap.setValue(0, 3, false);
+        bitMap.setValue(0, 3, true);
+
+        assertFalse(bitMap.isMatch(0, 3));
+    }
+
+    @Test public void large_grids_are_paged() {
+        assertTrue(BacktrackingMatcher.newBitMap(10, 100)
+                instanceof BacktrackingMatcher.BitMap);
+        assertTrue(BacktrackingMatcher.newBitMap(1000, 1000000)
+                instanceof PagedBitMap);
+    }
+}
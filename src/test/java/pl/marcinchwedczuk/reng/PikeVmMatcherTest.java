@@ -0,0 +1,31 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class PikeVmMatcherTest {
+    @Test public void runs_in_linear_time_on_evil_patterns() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) input.append('a');
+        input.append('b');
+
+        RAst regex = RParser.parse("(a+)*c");
+        assertFalse(PikeVmMatcher.match(input.toString(), regex).hasMatch);
+    }
+
+    @Test public void unrolls_counted_repeats() {
+        PikeVmMatcher vm = PikeVmMatcher.compile(RParser.parse("^a{2,4}$"));
+
+        assertFalse(vm.matches("a"));
+        assertTrue(vm.matches("aa"));
+        assertTrue(vm.matches("aaaa"));
+        assertFalse(vm.matches("aaaaa"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_lookaheads() {
+        PikeVmMatcher.compile(RParser.parse("a(?=b)"));
+    }
+}
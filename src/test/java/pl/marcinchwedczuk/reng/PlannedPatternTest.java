@@ -0,0 +1,100 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlannedPatternTest {
+    @Test public void anchored_one_pass_pattern_uses_one_pass_engine() {
+        EnginePlan plan = PlannedPattern.compile(
+                "^[_a-zA-Z][_a-zA-Z0-9]*@gmail\\.com$").plan();
+
+        assertEquals(MatchEngine.ONE_PASS, plan.engine());
+        assertEquals(MatchEngine.ONE_PASS, plan.findEngine());
+    }
+
+    @Test public void small_regular_pattern_uses_full_dfa() {
+        EnginePlan plan = PlannedPattern.compile(
+                "[_a-zA-Z][_a-zA-Z0-9]*@gmail\\.com").plan();
+
+        assertEquals(MatchEngine.FULL_DFA, plan.engine());
+        assertEquals(MatchEngine.PIKE_VM, plan.findEngine());
+        assertNull(plan.policy());
+        assertTrue(plan.reason(), plan.reason().contains("states"));
+    }
+
+    @Test public void large_dfa_uses_bit_parallel_engine() {
+        EnginePlan plan = PlannedPattern.compile("(a|b)*a(a|b){11}").plan();
+
+        assertEquals(MatchEngine.BIT_PARALLEL, plan.engine());
+    }
+
+    @Test public void large_dfa_with_many_positions_uses_lazy_dfa() {
+        EnginePlan plan = PlannedPattern.compile("(a|b)*a(a|b){70}").plan();
+
+        assertEquals(MatchEngine.LAZY_DFA, plan.engine());
+    }
+
+    @Test public void lookaheads_use_backtracking_without_memo() {
+        EnginePlan plan = PlannedPattern.compile("(a+)*(?=c)").plan();
+
+        assertEquals(MatchEngine.BACKTRACKING, plan.engine());
+        assertEquals(MatchEngine.BACKTRACKING, plan.findEngine());
+        assertEquals(MemoisationPolicy.NONE, plan.policy());
+        assertTrue(plan.features().hasLookaheads());
+    }
+
+    @Test public void lookaheads_find_the_same_span_as_unmemoised_backtracking() {
+        Match m = PlannedPattern.compile("((?!.)[ab]|(a){1,2})(?!ab)[^a].")
+                .find("cbabbaa");
+
+        assertTrue(m.hasMatch);
+        assertEquals(2, m.start);
+        assertEquals(5, m.end);
+    }
+
+    @Test public void repeats_without_lookaheads_use_memoised_backtracking() {
+        EnginePlan plan = PlannedPattern.compile("a*b{1000000}").plan();
+
+        assertEquals(MatchEngine.BACKTRACKING, plan.engine());
+        assertEquals(MemoisationPolicy.IN_DEGREE_GREATER_THAN_1, plan.policy());
+        assertEquals(MemoisationEncodingScheme.BIT_MAP, plan.scheme());
+    }
+
+    @Test public void huge_counted_repeats_use_backtracking() {
+        EnginePlan plan = PlannedPattern.compile("a{1000000}").plan();
+
+        assertEquals(MatchEngine.BACKTRACKING, plan.engine());
+        assertEquals(1000000, plan.features().maxRepeatCount());
+    }
+
+    @Test public void backreferences_are_detected() {
+        EnginePlan plan = PlannedPattern.compile("(ab)c\\1").plan();
+
+        assertTrue(plan.features().hasBackreferences());
+        assertTrue(plan.reason(), plan.reason().contains("backreferences"));
+    }
+
+    @Test public void codegen_is_used_only_on_request() {
+        PlannedPattern planned = PlannedPattern.compile("(foo|bar)+baz");
+        assertEquals(MatchEngine.PIKE_VM, planned.plan().findEngine());
+
+        PlannedPattern generated = planned.withCodegen();
+        MatchEngine expected = CodegenMatcher.isAvailable()
+                ? MatchEngine.CODEGEN
+                : MatchEngine.PIKE_VM;
+        assertEquals(expected, generated.plan().findEngine());
+        assertEquals(planned.plan().engine(), generated.plan().engine());
+
+        Match m = generated.find("xxbarfoobazz");
+        assertTrue(m.hasMatch);
+        assertEquals(2, m.start);
+        assertEquals(11, m.end);
+        assertFalse(generated.find("foobar").hasMatch);
+    }
+
+    @Test public void codegen_keeps_backtracking_plan() {
+        PlannedPattern planned = PlannedPattern.compile("a(?=b)");
+        assertSame(planned, planned.withCodegen());
+    }
+}
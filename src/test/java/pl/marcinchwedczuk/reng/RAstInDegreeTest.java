@@ -0,0 +1,101 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class RAstInDegreeTest {
+    @Test public void repeat_body_has_back_edge() {
+        // regex: xa*
+        RAst r = RAst.numbered(RAst.concat(
+                RAst.group('x'),
+                RAst.star(RAst.group('a'))));
+        int[] inDegree = RAst.calcInDegree(r);
+
+        RAst star = r.exprs.get(1);
+        assertEquals(1, inDegree[r.exprs.get(0).getID()]);
+        assertEquals(1, inDegree[star.getID()]);
+        assertEquals(2, inDegree[star.headExpr().getID()]);
+    }
+
+    @Test public void optional_has_no_back_edge() {
+        RAst r = RAst.numbered(RAst.repeat(RAst.group('a'), 0, 1));
+        int[] inDegree = RAst.calcInDegree(r);
+
+        assertEquals(1, inDegree[r.headExpr().getID()]);
+    }
+
+    @Test public void node_after_optional_joins_skip_edge() {
+        // regex: x?y
+        RAst r = RAst.numbered(RAst.concat(
+                RAst.repeat(RAst.group('x'), 0, 1),
+                RAst.group('y')));
+        int[] inDegree = RAst.calcInDegree(r);
+
+        assertEquals(2, inDegree[r.exprs.get(1).getID()]);
+
+        CompiledPattern p = CompiledPattern.compile("x?y",
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1, MemoisationEncodingScheme.BIT_MAP);
+        assertTrue(p.isMemoSite(p.regex().exprs.get(1)));
+    }
+
+    @Test public void node_after_alternative_joins_branches() {
+        // regex: (a|b|c)d
+        RAst r = RAst.numbered(RAst.concat(
+                RAst.alternative(RAst.group('a'), RAst.group('b'), RAst.group('c')),
+                RAst.group('d')));
+        int[] inDegree = RAst.calcInDegree(r);
+
+        RAst alt = r.exprs.get(0);
+        for (RAst branch : alt.exprs) {
+            assertEquals(1, inDegree[branch.getID()]);
+        }
+        assertEquals(3, inDegree[r.exprs.get(1).getID()]);
+    }
+
+    @Test public void works_at_any_depth() {
+        // Neither repeat is a direct child of the root
+        RAst r = RAst.numbered(RParser.parse("x(y(a|bc)+z)d"));
+        int[] inDegree = RAst.calcInDegree(r);
+
+        RAst outer = r.exprs.get(1);
+        RAst plus = outer.exprs.get(1);
+        RAst body = plus.headExpr();
+        RAst z = outer.exprs.get(2);
+
+        // Entry into the loop plus back-edges from both branches
+        assertEquals(3, inDegree[body.getID()]);
+        assertEquals(1, inDegree[z.getID()]);
+    }
+
+    @Test public void in_degree_policy_memoises_fewer_nodes_than_all() {
+        RAst r = RParser.parse("(a+)*c");
+
+        CompiledPattern all = CompiledPattern.compile(r,
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+        CompiledPattern inDegree = CompiledPattern.compile(r,
+                MemoisationPolicy.IN_DEGREE_GREATER_THAN_1, MemoisationEncodingScheme.BIT_MAP);
+
+        assertTrue(inDegree.memoSiteCount() > 0);
+        assertTrue(inDegree.memoSiteCount() < all.memoSiteCount());
+    }
+
+    @Test(timeout = 10000)
+    public void in_degree_policy_defeats_nested_repeat_redos() {
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 200; i++) input.append('a');
+        input.append('b');
+
+        for (MemoisationEncodingScheme scheme : MemoisationEncodingScheme.values()) {
+            CompiledPattern p = CompiledPattern.compile("(a+)*c",
+                    MemoisationPolicy.IN_DEGREE_GREATER_THAN_1, scheme);
+            assertFalse(p.find(input.toString()).hasMatch);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requires_numbered_pattern() {
+        RAst.calcInDegree(RAst.group('a'));
+    }
+}
@@ -0,0 +1,59 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class RAstNumberedTest {
+    @Test public void factory_nodes_have_no_id() {
+        RAst r = RAst.literal("ab");
+
+        assertEquals(RAst.NO_ID, r.getID());
+        assertFalse(r.isNumbered());
+    }
+
+    @Test public void ids_are_dense_within_pattern() {
+        // Parse some unrelated patterns first, they must not affect ids
+        RParser.parse("(foo|bar)*baz");
+        RParser.parse("[a-z]+@[a-z]+");
+
+        RAst r = RAst.numbered(RAst.concat(
+                RAst.group('B'),
+                RAst.star(
+                        RAst.alternative(RAst.group('0'), RAst.group('1'))),
+                RAst.group('E')));
+
+        assertTrue(r.isNumbered());
+        assertEquals(7, r.nodeCount());
+        assertEquals(0, r.getID());
+
+        boolean[] seen = new boolean[r.nodeCount()];
+        markIds(r, seen);
+        for (boolean s : seen) assertTrue(s);
+
+        assertEquals("B(0|1)*E", r.toString());
+    }
+
+    @Test public void shared_nodes_get_single_id() {
+        RAst a = RAst.group('a');
+        RAst r = RAst.numbered(RAst.concat(a, a));
+
+        assertEquals(2, r.nodeCount());
+        assertSame(r.exprs.get(0), r.exprs.get(1));
+    }
+
+    @Test public void numbering_does_not_modify_original() {
+        RAst original = RAst.star(RAst.group('a'));
+        RAst r = RAst.numbered(original);
+
+        assertNotSame(original, r);
+        assertEquals(RAst.NO_ID, original.getID());
+        assertSame(r, RAst.numbered(r));
+    }
+
+    private static void markIds(RAst ast, boolean[] seen) {
+        seen[ast.getID()] = true;
+        for (RAst e : ast.exprs) markIds(e, seen);
+    }
+}
@@ -0,0 +1,95 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class RAstSimplifierTest {
+    @Test public void flattens_nested_concatenations_and_alternatives() {
+        RAst r = RAst.concat(
+                RAst.concat(RAst.group('a'), RAst.group('b')),
+                RAst.alternative(
+                        RAst.alternative(RAst.literal("xy"), RAst.literal("zz")),
+                        RAst.literal("uv")));
+
+        RAst s = RAstSimplifier.simplify(r);
+
+        assertEquals(RAstType.CONCAT, s.type);
+        assertEquals(3, s.exprs.size());
+        assertEquals(3, s.exprs.get(2).exprs.size());
+        assertEquals("ab(xy|zz|uv)", s.toString());
+    }
+
+    @Test public void merges_adjacent_single_char_alternatives() {
+        assertEquals("[abc]", simplify("a|b|c"));
+        assertEquals("[ab]|xy|[cd]", simplify("a|b|xy|c|d"));
+        assertEquals("[abx]", simplify("a|[bx]"));
+    }
+
+    @Test public void removes_nested_repeats_of_single_chars() {
+        assertEquals("a*", simplify("(a*)*"));
+        assertEquals("a*", simplify("(a+)*"));
+        assertEquals("a+", simplify("(a+)+"));
+        assertEquals("[ab]*", simplify("((a|b)*)*"));
+        // Longer bodies may try iterations in a different order
+        RAst nested = RAstSimplifier.simplify(RParser.parse("((ab)*)*"));
+        assertEquals(RAstType.REPEAT, nested.type);
+        assertEquals(RAstType.REPEAT, nested.headExpr().type);
+    }
+
+    @Test public void keeps_leftmost_first_matches() {
+        String[] patterns = {
+                "a|b|c", "a|ab|b|abc", "(a*)*b", "((a|b)+)*c", "(x(y(z)))",
+                "(ab|a)(c|bcd)", "(a|ab)(c|bcd)(d*)", "x{1}y", "(a)b\\1"
+        };
+        String[] inputs = {
+                "", "a", "abc", "aaab", "abcd", "xyz", "ababc", "abcdd",
+                "zzabcd", "xy", "aba"
+        };
+
+        for (String pattern : patterns) {
+            RAst regex = RParser.parse(pattern);
+            RAst simplified = RAstSimplifier.simplify(regex);
+
+            for (String input : inputs) {
+                Match expected = find(input, regex);
+                Match actual = find(input, simplified);
+
+                String msg = pattern + " on '" + input + "'";
+                assertEquals(msg, expected.hasMatch, actual.hasMatch);
+                assertEquals(msg, expected.start, actual.start);
+                assertEquals(msg, expected.end, actual.end);
+            }
+        }
+    }
+
+    @Test public void shrinks_the_compiled_pattern() {
+        RAst r = RParser.parse("((a|b|c)*)*d");
+        CompiledPattern p = CompiledPattern.compile(r,
+                MemoisationPolicy.ALL, MemoisationEncodingScheme.BIT_MAP);
+
+        assertTrue(p.regex().nodeCount() < RAst.numbered(r).nodeCount());
+        assertEquals(4, p.regex().nodeCount());
+    }
+
+    private static String simplify(String pattern) {
+        return RAstSimplifier.simplify(RParser.parse(pattern)).toString();
+    }
+
+    // Interpreter without memoisation or simplification
+    private static Match find(String s, RAst regex) {
+        for (int start = 0; start <= s.length(); start++) {
+            Input input = Input.of(s);
+            input.advance(start);
+            int[] end = { -1 };
+            if (BacktrackingMatcher.match(input, regex, () -> {
+                end[0] = input.currentPos();
+                return true;
+            })) {
+                return new Match(s, true, start, end[0]);
+            }
+        }
+        return new Match(s, false, -1, -1);
+    }
+}
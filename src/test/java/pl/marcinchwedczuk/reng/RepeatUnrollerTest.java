@@ -0,0 +1,68 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import static org.junit.Assert.*;
+
+public class RepeatUnrollerTest {
+    @Test public void bounded_repeat_becomes_copies_and_nested_optionals() {
+        // ab{2,4} -> abb(b(b)?)?
+        RAst r = RepeatUnroller.unroll(RParser.parse("ab{2,4}"));
+
+        RAst repeat = r.exprs.get(1);
+        assertEquals(RAstType.CONCAT, repeat.type);
+        assertEquals(3, repeat.exprs.size());
+        assertEquals(RAstType.GROUP, repeat.exprs.get(0).type);
+        assertEquals(RAstType.GROUP, repeat.exprs.get(1).type);
+
+        RAst optional = repeat.exprs.get(2);
+        assertEquals(0, optional.repeatMin);
+        assertEquals(1, optional.repeatMax);
+        assertEquals(RAstType.CONCAT, optional.headExpr().type);
+        assertNotSame(repeat.exprs.get(0), repeat.exprs.get(1));
+    }
+
+    @Test public void unbounded_repeat_ends_with_star() {
+        RAst r = RepeatUnroller.unroll(RAst.repeat(RAst.group('a'), 2, RAst.UNBOUND));
+
+        assertEquals(RAstType.CONCAT, r.type);
+        assertEquals(3, r.exprs.size());
+        assertEquals(0, r.exprs.get(2).repeatMin);
+        assertEquals(RAst.UNBOUND, (Long) r.exprs.get(2).repeatMax);
+    }
+
+    @Test public void keeps_nullable_and_large_repeats() {
+        RAst nullable = RParser.parse("(a?){2,3}");
+        assertSame(nullable, RepeatUnroller.unroll(nullable));
+
+        RAst large = RParser.parse("(abc){1000}");
+        assertSame(large, RepeatUnroller.unroll(large));
+
+        RAst star = RParser.parse("(ab)*");
+        assertSame(star, RepeatUnroller.unroll(star));
+    }
+
+    @Test public void unrolled_pattern_finds_same_matches() {
+        String[] patterns = { "(ab|a){2,3}b", "x{2,3}y{2}", "(a|b){2,4}c", "(.a){1,3}" };
+        String[] inputs = { "", "ab", "abab", "ababab", "aab", "xxxyy", "xxyyy", "abbac", "aaaaaa" };
+
+        for (String pattern : patterns) {
+            RAst regex = RParser.parse(pattern);
+            RAst unrolled = RepeatUnroller.unroll(regex);
+
+            for (String input : inputs) {
+                // A numbered pattern is compiled without unrolling
+                Match expected = CompiledPattern.compile(RAst.numbered(regex),
+                        MemoisationPolicy.NONE, MemoisationEncodingScheme.HASH_TABLE).find(input);
+                Match actual = CompiledPattern.compile(unrolled,
+                        MemoisationPolicy.ALL, MemoisationEncodingScheme.HASH_TABLE).find(input);
+
+                String msg = pattern + " on '" + input + "'";
+                assertEquals(msg, expected.hasMatch, actual.hasMatch);
+                assertEquals(msg, expected.start, actual.start);
+                assertEquals(msg, expected.end, actual.end);
+            }
+        }
+    }
+}
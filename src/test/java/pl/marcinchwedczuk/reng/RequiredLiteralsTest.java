@@ -0,0 +1,90 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RequiredLiteralsTest {
+    private static Set<String> requiredBy(String pattern) {
+        return RequiredLiterals.of(RParser.parse(pattern)).literals();
+    }
+
+    private static Set<String> setOf(String... literals) {
+        return new HashSet<>(Arrays.asList(literals));
+    }
+
+    @Test public void finds_literal_after_unbounded_prefix() {
+        assertEquals(setOf("@gmail.com"), requiredBy(".*@gmail\\.com"));
+        assertEquals(setOf(" ERROR "), requiredBy("^[0-9]+ ERROR [a-z]*$"));
+    }
+
+    @Test public void picks_the_longest_literal() {
+        assertEquals(setOf("needle"), requiredBy("ab.*needle.*cd"));
+    }
+
+    @Test public void alternatives_contribute_one_literal_each() {
+        assertEquals(setOf("foo", "bar"), requiredBy("x*(foo|bar)+y*"));
+        assertEquals(setOf("xa", "xb"), requiredBy("x[ab]"));
+        assertEquals(Collections.emptySet(), requiredBy("x*(foo|[0-9]*)"));
+    }
+
+    @Test public void repeats_join_their_minimum() {
+        assertEquals(setOf("ababab"), requiredBy(".*(ab){3,5}"));
+        assertEquals(setOf("ab"), requiredBy("(ab)+"));
+        assertEquals(Collections.emptySet(), requiredBy("(ab)*"));
+    }
+
+    @Test public void nullable_pattern_requires_nothing() {
+        assertEquals(Collections.emptySet(), requiredBy("a*"));
+        assertEquals(Collections.emptySet(), requiredBy("(abc)?"));
+        assertEquals(Collections.emptySet(), requiredBy("[^a]+"));
+    }
+
+    @Test public void lookahead_ends_the_literal() {
+        // a(?=b)c matches abc, the lookahead branch consumes the b
+        RAst r = RAst.concat(
+                RAst.literal("xa"),
+                RAst.posLookAhead(RAst.group('b')),
+                RAst.literal("cy"));
+        RequiredLiterals required = RequiredLiterals.of(r);
+
+        assertFalse(required.literals().contains("xacy"));
+        assertTrue(required.mayMatch("xabcy"));
+        assertTrue(RequiredLiterals.of(RAst.concat(
+                RAst.negLookAhead(RAst.group('b')),
+                RAst.group('c'))).mayMatch("c"));
+    }
+
+    @Test public void rejects_input_without_the_literals() {
+        RequiredLiterals required = RequiredLiterals.of(RParser.parse(".*@(gmail|yahoo)\\.com"));
+
+        assertTrue(required.mayMatch("jan@gmail.com"));
+        assertTrue(required.mayMatch("x@yahoo.com"));
+        assertFalse(required.mayMatch("jan@outlook.com"));
+        assertFalse(required.mayMatch(""));
+    }
+
+    @Test public void compiled_pattern_gives_same_results_with_rejection() {
+        String[] patterns = { ".*@gmail\\.com", "(foo|bar)+", "a(b|c){2}d", "(ab)\\1" };
+        String[] inputs = { "", "x@gmail.com", "foobar", "fo", "abcd", "acbd", "abab", "aba" };
+
+        for (String pattern : patterns) {
+            CompiledPattern compiled = CompiledPattern.compile(pattern);
+            IterativeBacktrackingMatcher reference = IterativeBacktrackingMatcher.compile(
+                    RParser.parse(pattern), MemoisationPolicy.NONE,
+                    MemoisationEncodingScheme.HASH_TABLE);
+
+            for (String input : inputs) {
+                String msg = pattern + " on '" + input + "'";
+                assertEquals(msg, reference.find(input).hasMatch, compiled.find(input).hasMatch);
+                assertEquals(msg, reference.matches(input), compiled.matches(input));
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+import pl.marcinchwedczuk.reng.parser.RParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class ReverseSearchMatcherTest {
+    @Test public void reversed_pattern_swaps_anchors_and_concatenations() {
+        assertEquals("ba$", ReverseSearchMatcher.reversed(RParser.parse("^ab")).toString());
+        assertEquals("^cba$", ReverseSearchMatcher.reversed(RParser.parse("^abc$")).toString());
+        assertEquals("(ba)*|c", ReverseSearchMatcher.reversed(RParser.parse("(ab)*|c")).toString());
+    }
+
+    @Test public void compiled_pattern_uses_reverse_search_when_possible() {
+        CompiledPattern search = CompiledPattern.compile("[0-9]+").withReverseSearch();
+        assertTrue(search.hasReverseSearch());
+
+        Match m = search.find("abc 1234 def");
+        assertEquals(4, m.start);
+        assertEquals(8, m.end);
+
+        assertFalse(CompiledPattern.compile("a(?=b)").withReverseSearch().hasReverseSearch());
+    }
+
+    @Test public void concurrent_calls_agree() throws Exception {
+        ReverseSearchMatcher search = ReverseSearchMatcher.compile(RParser.parse("(a|b)*a(a|b){9}c"));
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            text.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        text.append('c');
+        String s = text.toString();
+        Match expected = search.find(s);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Match>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> search.find(s)));
+            }
+            for (Future<Match> result : results) {
+                Match m = result.get();
+                assertEquals(expected.start, m.start);
+                assertEquals(expected.end, m.end);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test public void long_text_is_searched_in_linear_time() {
+        // Restarting at every position would take about 10^10 steps
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100_000; i++) text.append('a');
+        text.append('b');
+
+        ReverseSearchMatcher search = ReverseSearchMatcher.compile(RParser.parse("a*c|b"));
+        Match m = search.find(text.toString());
+
+        assertTrue(m.hasMatch);
+        assertEquals(100_000, m.start);
+    }
+}
@@ -0,0 +1,84 @@
+package pl.marcinchwedczuk.reng;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RleMemoTableTest {
+    @Test public void unset_cells_are_not_set() {
+        RleMemoTable table = new RleMemoTable(3);
+
+        assertFalse(table.isSet(1, 0));
+        assertFalse(table.isSet(3, 100));
+        assertFalse(table.isMatch(1, 0));
+    }
+
+    @Test public void stores_values() {
+        RleMemoTable table = new RleMemoTable(3);
+
+        table.setValue(1, 5, true);
+        table.setValue(1, 7, false);
+
+        assertTrue(table.isSet(1, 5));
+        assertTrue(table.isMatch(1, 5));
+        assertTrue(table.isSet(1, 7));
+        assertFalse(table.isMatch(1, 7));
+
+        assertFalse(table.isSet(1, 6));
+        assertFalse(table.isSet(2, 5));
+    }
+
+    @Test public void first_value_wins() {
+        RleMemoTable table = new RleMemoTable(1);
+
+        table.setValue(1, 0, false);
+        table.setValue(1, 0, true);
+
+        assertFalse(table.isMatch(1, 0));
+    }
+
+    @Test public void test_and_set_keeps_the_first_value() {
+        RleMemoTable table = new RleMemoTable(1);
+        table.setValue(1, 0, true);
+
+        assertTrue(table.testAndSetFailed(1, 0));
+        assertTrue(table.isMatch(1, 0));
+
+        assertFalse(table.testAndSetFailed(1, 1));
+        assertTrue(table.testAndSetFailed(1, 1));
+        assertFalse(table.isMatch(1, 1));
+    }
+
+    @Test public void consecutive_positions_are_compressed() {
+        RleMemoTable table = new RleMemoTable(1);
+
+        for (int pos = 0; pos < 1000; pos++) {
+            table.setValue(1, pos, false);
+        }
+        assertEquals(1, table.runCount(1));
+
+        // Fill a gap from both sides, runs should merge
+        for (int pos = 2000; pos > 1001; pos--) {
+            table.setValue(1, pos, false);
+        }
+        assertEquals(2, table.runCount(1));
+        table.setValue(1, 1000, false);
+        table.setValue(1, 1001, false);
+        assertEquals(1, table.runCount(1));
+
+        // Different value starts a new run
+        table.setValue(1, 2001, true);
+        assertEquals(2, table.runCount(1));
+        assertTrue(table.isMatch(1, 2001));
+        assertFalse(table.isMatch(1, 2000));
+    }
+
+    @Test public void grows_for_unknown_nodes() {
+        RleMemoTable table = new RleMemoTable(1);
+
+        table.setValue(10, 3, true);
+
+        assertTrue(table.isSet(10, 3));
+        assertTrue(table.isMatch(10, 3));
+    }
+}
@@ -30,6 +30,14 @@ public class RParserTest {
         assertEquals("[0123456789]", ast.toString());
     }
 
+    @Test public void wide_range_is_stored_as_a_single_range() {
+        RAst ast = RParser.parse("[\u0000-\uffff]");
+
+        assertEquals(1, ast.chars.rangeCount());
+        assertEquals(65536, ast.chars.size());
+        assertTrue(ast.chars.contains('\u1234'));
+    }
+
     @Test public void special_characters_need_no_escape_in_group()  {
         RAst ast = RParser.parse("[$().^]");
         assertEquals("[$().^]", ast.toString());